@@ -0,0 +1,537 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt;
+
+import com.ricoh.camera.sdk.wireless.api.CameraDevice;
+import com.ricoh.camera.sdk.wireless.api.CameraImage;
+import com.ricoh.camera.sdk.wireless.api.Capture;
+import com.ricoh.camera.sdk.wireless.api.ImageFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lpt.usb.USBEventListener;
+
+
+
+
+/*
+ * Headless shutter-to-disk run: captureStillImage, the imageStored event, ImageDownloader.downloadImage and the
+ * file landing on disk, repeated against a stand-in camera.  The k-th image of each format belongs to the k-th
+ * shot, and a shot is on disk once every format it produced has been written.
+ *
+ *   lpt.harness.camera   fake (USBFakeCamera, default) or simulator (USBDriverSimulator behind USBBridge)
+ *   lpt.harness.shots    number of captures, default 50
+ *   lpt.harness.rate     shots per minute, 0 (default) fires the next shot as soon as the previous one completes
+ *   lpt.harness.out      download directory, default a temporary one
+ *   lpt.harness.keep     keep the downloaded files, default false
+ *   lpt.harness.timeout  milliseconds to wait for outstanding downloads after the last shot, default 120000
+ *   lpt.harness.report   JSON result file, default none
+ *
+ * File sizes and latencies come from the stand-in's own lpt.fake.* or lpt.sim.* properties.
+ */
+public final class CaptureThroughputHarness
+{
+    private static final int HEAP_SAMPLE_INTERVAL = 20;
+
+    private final int shots;
+    private final int rate;
+    private final File out;
+    private final boolean keep;
+    private final long timeout;
+
+    private final List<Long> shutter;
+    private final Map<ImageFormat, AtomicInteger> stored;
+    private final Map<ImageFormat, List<Long>> onDisk;
+    private final AtomicInteger pending;
+    private final AtomicInteger failed;
+    private final Semaphore completed;
+    private long bytes;
+    private volatile long peakHeap;
+
+
+
+
+    private CaptureThroughputHarness(int shots, int rate, File out, boolean keep, long timeout)
+    {
+        this.shots = shots;
+        this.rate = rate;
+        this.out = out;
+        this.keep = keep;
+        this.timeout = timeout;
+        this.shutter = Collections.synchronizedList(new ArrayList<>());
+        this.stored = new EnumMap<>(ImageFormat.class);
+        this.onDisk = new EnumMap<>(ImageFormat.class);
+        this.pending = new AtomicInteger();
+        this.failed = new AtomicInteger();
+        this.completed = new Semaphore(0);
+
+        for (ImageFormat f : ImageFormat.values())
+        {
+            stored.put(f, new AtomicInteger());
+            onDisk.put(f, Collections.synchronizedList(new ArrayList<>()));
+        }
+    }
+
+
+
+
+    public static void main(String[] args) throws Exception
+    {
+        String camera = System.getProperty("lpt.harness.camera", "fake");
+
+        if ("simulator".equals(camera))
+        {
+            System.setProperty("lpt.usb.driver", "simulator");
+        }
+        else
+        {
+            System.setProperty("lpt.usb.platform", "fake");
+        }
+
+        String dir = System.getProperty("lpt.harness.out");
+        File out = dir == null ? Files.createTempDirectory("lpt-harness").toFile() : new File(dir);
+
+        if (!out.isDirectory() && !out.mkdirs())
+        {
+            throw new IOException("Cannot create " + out);
+        }
+
+        CaptureThroughputHarness h = new CaptureThroughputHarness(
+            Integer.getInteger("lpt.harness.shots", 50),
+            Integer.getInteger("lpt.harness.rate", 0),
+            out,
+            Boolean.getBoolean("lpt.harness.keep"),
+            Long.getLong("lpt.harness.timeout", 120000));
+
+        Result r = h.run();
+
+        r.print(System.out, camera);
+
+        String report = System.getProperty("lpt.harness.report");
+
+        if (report != null)
+        {
+            File f = new File(report);
+
+            if (f.getParentFile() != null)
+            {
+                f.getParentFile().mkdirs();
+            }
+
+            try (PrintStream ps = new PrintStream(f, StandardCharsets.UTF_8.name()))
+            {
+                r.json(ps, camera);
+            }
+        }
+
+        if (!h.keep && dir == null)
+        {
+            out.delete();
+        }
+
+        // ImageDownloader's pool is not a daemon.
+        System.exit(r.complete == h.shots && r.failed == 0 ? 0 : 1);
+    }
+
+
+
+
+    private Result run() throws CameraException, InterruptedException
+    {
+        CameraControll m = new CameraControll(CameraControll.CONNECTION_MODE.MODE_USB);
+        ImageDownloader dm = m.getDownloadManager();
+
+        Listener downloaded = new Listener()
+        {
+            @Override
+            public void imageCaptureComplete(boolean captureOk, int remaining)
+            {
+            }
+
+            @Override
+            public void disconnect()
+            {
+            }
+
+            @Override
+            public void imageDownloaded(CameraImage i, File f, boolean isThumbnail)
+            {
+                landed(i, f);
+            }
+
+            @Override
+            public void imageStored(CameraImage i)
+            {
+            }
+        };
+
+        m.connect(new USBEventListener()
+        {
+            @Override
+            public void captureComplete(CameraDevice sender, Capture capture)
+            {
+                completed.release();
+            }
+
+            @Override
+            public void imageStored(CameraDevice sender, CameraImage image)
+            {
+                pending.incrementAndGet();
+                stored.get(image.getFormat()).incrementAndGet();
+                dm.downloadImage(out.getPath(), image, downloaded);
+            }
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (p.getType() == MemoryType.HEAP && p.isValid())
+            {
+                p.resetPeakUsage();
+                heap.add(p);
+            }
+        }
+
+        threads.resetPeakThreadCount();
+
+        Thread sampler = new Thread(() ->
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                long used = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+                peakHeap = Math.max(peakHeap, used);
+
+                try
+                {
+                    Thread.sleep(HEAP_SAMPLE_INTERVAL);
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+            }
+        }, "Capture harness heap sampler");
+
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long period = rate > 0 ? TimeUnit.MINUTES.toNanos(1) / rate : 0;
+        long start = System.nanoTime();
+        int shutterFailures = 0;
+        boolean busy = false;
+
+        for (int i = 0; i < shots; i++)
+        {
+            // Cameras refuse a new shot while one is executing, so back to back means after captureComplete.
+            if (period == 0 && busy)
+            {
+                completed.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            }
+
+            long due = start + i * period;
+            long wait = due - System.nanoTime();
+
+            if (wait > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            long t = System.nanoTime();
+
+            try
+            {
+                Capture c = m.captureStillImage(false);
+
+                if (c != null)
+                {
+                    shutter.add(t);
+                    busy = true;
+                }
+            }
+            catch (CameraException ex)
+            {
+                shutterFailures++;
+                busy = false;
+                System.err.println("Capture " + i + " failed: " + ex);
+            }
+        }
+
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (System.nanoTime() < end && !drained())
+        {
+            Thread.sleep(HEAP_SAMPLE_INTERVAL);
+        }
+
+        sampler.interrupt();
+
+        long heapPeak = 0;
+
+        for (MemoryPoolMXBean p : heap)
+        {
+            heapPeak += p.getPeakUsage().getUsed();
+        }
+
+        Result r = result(start, shutterFailures);
+        r.peakThreads = threads.getPeakThreadCount();
+        r.peakHeap = Math.max(heapPeak, peakHeap);
+
+        m.disconnect();
+
+        return r;
+    }
+
+
+
+
+    private void landed(CameraImage i, File f)
+    {
+        long t = System.nanoTime();
+
+        if (i == null)
+        {
+            return;
+        }
+
+        if (f == null)
+        {
+            failed.incrementAndGet();
+        }
+        else
+        {
+            synchronized (this)
+            {
+                bytes += f.length();
+            }
+
+            onDisk.get(i.getFormat()).add(t);
+
+            if (!keep)
+            {
+                f.delete();
+            }
+        }
+
+        pending.decrementAndGet();
+    }
+
+
+
+
+    // Every shot has produced its images and all of them are written (or have failed).
+    private boolean drained()
+    {
+        if (pending.get() > 0)
+        {
+            return false;
+        }
+
+        for (ImageFormat f : formats())
+        {
+            if (stored.get(f).get() < shutter.size())
+            {
+                return false;
+            }
+        }
+
+        return !formats().isEmpty() || shutter.isEmpty();
+    }
+
+
+
+
+    private Set<ImageFormat> formats()
+    {
+        Set<ImageFormat> s = EnumSet.noneOf(ImageFormat.class);
+
+        for (Map.Entry<ImageFormat, AtomicInteger> e : stored.entrySet())
+        {
+            if (e.getValue().get() > 0)
+            {
+                s.add(e.getKey());
+            }
+        }
+
+        return s;
+    }
+
+
+
+
+    private Result result(long start, int shutterFailures)
+    {
+        Set<ImageFormat> formats = formats();
+        Map<ImageFormat, List<Long>> landed = new EnumMap<>(ImageFormat.class);
+        List<Long> latencies = new ArrayList<>();
+        long last = start;
+
+        // Listener threads may report two files of one format out of order; the k-th to land closes shot k.
+        for (ImageFormat f : formats)
+        {
+            landed.put(f, sorted(onDisk.get(f)));
+        }
+
+        for (int k = 0; k < shutter.size(); k++)
+        {
+            long done = 0;
+
+            for (ImageFormat f : formats)
+            {
+                List<Long> l = landed.get(f);
+
+                if (k >= l.size())
+                {
+                    done = -1;
+                    break;
+                }
+
+                done = Math.max(done, l.get(k));
+            }
+
+            if (done > 0)
+            {
+                latencies.add(done - shutter.get(k));
+                last = Math.max(last, done);
+            }
+        }
+
+        Collections.sort(latencies);
+
+        Result r = new Result();
+        r.shots = shots;
+        r.rate = rate;
+        r.formats = formats.toString();
+        r.complete = latencies.size();
+        r.failed = failed.get() + shutterFailures;
+        r.bytes = bytes;
+        r.elapsed = last - start;
+        r.p50 = percentile(latencies, 0.50);
+        r.p99 = percentile(latencies, 0.99);
+        r.max = latencies.isEmpty() ? 0 : latencies.get(latencies.size() - 1);
+
+        return r;
+    }
+
+
+
+
+    private static List<Long> sorted(List<Long> l)
+    {
+        synchronized (l)
+        {
+            Long[] a = l.toArray(new Long[0]);
+            Arrays.sort(a);
+
+            return Arrays.asList(a);
+        }
+    }
+
+
+
+
+    private static long percentile(List<Long> sorted, double p)
+    {
+        if (sorted.isEmpty())
+        {
+            return 0;
+        }
+
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, i)));
+    }
+
+
+
+
+    private static final class Result
+    {
+        int shots;
+        int rate;
+        String formats;
+        int complete;
+        int failed;
+        long bytes;
+        long elapsed;
+        long p50;
+        long p99;
+        long max;
+        int peakThreads;
+        long peakHeap;
+
+
+
+
+        double shotsPerMinute()
+        {
+            return elapsed <= 0 ? 0 : complete * 60e9 / elapsed;
+        }
+
+        double megabytesPerSecond()
+        {
+            return elapsed <= 0 ? 0 : bytes / 1e6 / (elapsed / 1e9);
+        }
+
+
+
+
+        void print(PrintStream ps, String camera)
+        {
+            ps.printf(Locale.ROOT, "camera            %s %s%n", camera, formats);
+            ps.printf(Locale.ROOT, "shots             %d/%d on disk, %d failed%n", complete, shots, failed);
+            ps.printf(Locale.ROOT, "requested rate    %s%n", rate > 0 ? rate + " shots/min" : "back to back");
+            ps.printf(Locale.ROOT, "throughput        %.1f shots/min, %.1f MB/s%n", shotsPerMinute(), megabytesPerSecond());
+            ps.printf(Locale.ROOT, "shutter-to-disk   p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", p50 / 1e6, p99 / 1e6, max / 1e6);
+            ps.printf(Locale.ROOT, "peak threads      %d%n", peakThreads);
+            ps.printf(Locale.ROOT, "peak heap         %.1f MB%n", peakHeap / 1e6);
+        }
+
+
+
+
+        void json(PrintStream ps, String camera)
+        {
+            ps.printf(Locale.ROOT, "{%n");
+            ps.printf(Locale.ROOT, "    \"camera\" : \"%s\",%n", camera);
+            ps.printf(Locale.ROOT, "    \"formats\" : \"%s\",%n", formats);
+            ps.printf(Locale.ROOT, "    \"shots\" : %d,%n", shots);
+            ps.printf(Locale.ROOT, "    \"rate\" : %d,%n", rate);
+            ps.printf(Locale.ROOT, "    \"complete\" : %d,%n", complete);
+            ps.printf(Locale.ROOT, "    \"failed\" : %d,%n", failed);
+            ps.printf(Locale.ROOT, "    \"bytes\" : %d,%n", bytes);
+            ps.printf(Locale.ROOT, "    \"elapsedMs\" : %.3f,%n", elapsed / 1e6);
+            ps.printf(Locale.ROOT, "    \"shotsPerMinute\" : %.3f,%n", shotsPerMinute());
+            ps.printf(Locale.ROOT, "    \"megabytesPerSecond\" : %.3f,%n", megabytesPerSecond());
+            ps.printf(Locale.ROOT, "    \"p50Ms\" : %.3f,%n", p50 / 1e6);
+            ps.printf(Locale.ROOT, "    \"p99Ms\" : %.3f,%n", p99 / 1e6);
+            ps.printf(Locale.ROOT, "    \"maxMs\" : %.3f,%n", max / 1e6);
+            ps.printf(Locale.ROOT, "    \"peakThreads\" : %d,%n", peakThreads);
+            ps.printf(Locale.ROOT, "    \"peakHeapBytes\" : %d%n", peakHeap);
+            ps.printf(Locale.ROOT, "}%n");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.gui;
+
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lpt.usb.USBCameraSetting;
+import lpt.usb.USBMessage;
+import lpt.usb.USBMessageBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CameraSetBenchmark
+{
+    private static final String[] COLUMNS = {"Av", "Tv", "ISO", "EV", CameraSet.FOCUS_ITEM_NAME};
+
+    @Param({"100", "1000", "10000"})
+    public int rows;
+
+    private List<CaptureSetting> avs;
+    private List<CaptureSetting> tvs;
+    private List<CaptureSetting> isos;
+    private List<CaptureSetting> evs;
+    private CameraSet table;
+    private CameraSet target;
+    private File saved;
+    private File scratch;
+
+
+
+
+    @Setup
+    public void setup() throws IOException
+    {
+        USBMessage nm = new USBMessage(USBMessageBenchmark.SETTINGS);
+
+        avs = available(nm, "FNumber", FNumber.class);
+        tvs = available(nm, "ShutterSpeed", ShutterSpeed.class);
+        isos = available(nm, "ISO", ISO.class);
+        evs = available(nm, "ExposureCompensation", ExposureCompensation.class);
+
+        table = new CameraSet(null, COLUMNS);
+
+        for (int i = 0; i < rows; i++)
+        {
+            table.addRow(new Object[] {
+                item(avs.get(i % avs.size())),
+                item(tvs.get(i % tvs.size())),
+                item(isos.get(i % isos.size())),
+                item(evs.get(i % evs.size())),
+                CameraSet.getFocusItem(i % 2 == 0)
+            });
+        }
+
+        target = new CameraSet(null, COLUMNS);
+        saved = File.createTempFile("lpt-bench", ".csv");
+        scratch = File.createTempFile("lpt-bench", ".csv");
+
+        if (!CameraSet.serialize(saved.getPath(), table))
+        {
+            throw new IOException("Could not write " + saved);
+        }
+    }
+
+
+
+
+    @TearDown
+    public void tearDown()
+    {
+        saved.delete();
+        scratch.delete();
+    }
+
+
+
+
+    @Benchmark
+    public boolean serialize()
+    {
+        return CameraSet.serialize(scratch.getPath(), table);
+    }
+
+
+
+
+    @Benchmark
+    public int unserialize()
+    {
+        target.unserialize(saved.getPath(), avs, tvs, isos, evs);
+
+        return target.getRowCount();
+    }
+
+
+
+
+    private static List<CaptureSetting> available(USBMessage nm, String name, Class<? extends CaptureSetting> cls)
+    {
+        return USBCameraSetting.getUSBSetting(nm.getKey("current" + name), nm.getKey("available" + name), cls).getAvailableSettings();
+    }
+
+
+
+
+    private static ComboItem item(CaptureSetting s)
+    {
+        return new ComboItem(s.getValue().toString(), s);
+    }
+}
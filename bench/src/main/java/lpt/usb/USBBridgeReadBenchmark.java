@@ -0,0 +1,134 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class USBBridgeReadBenchmark
+{
+    @Param({"STATUS", "EVENT", "SETTINGS"})
+    public String kind;
+
+    private InputStream stream;
+    private USBFrameReader reader;
+
+
+
+
+    @Setup
+    public void setup()
+    {
+        String payload;
+
+        switch (kind)
+        {
+            case "STATUS":
+                payload = USBMessageBenchmark.STATUS;
+                break;
+            case "EVENT":
+                payload = USBMessageBenchmark.EVENT;
+                break;
+            default:
+                payload = USBMessageBenchmark.SETTINGS;
+                break;
+        }
+
+        byte[] b = payload.getBytes(StandardCharsets.UTF_8);
+
+        stream = new Repeat(b);
+        reader = new USBFrameReader(new Repeat(b));
+    }
+
+
+
+
+    @Benchmark
+    public String readUntilChar()
+    {
+        return USBBridge.readUntilChar(stream, USBMessage.getMessageDelim());
+    }
+
+
+
+
+    @Benchmark
+    public String readFrame() throws IOException
+    {
+        return reader.readFrame();
+    }
+
+
+
+
+    // An endless driver stdout that keeps sending the same reply.
+    private static final class Repeat extends InputStream
+    {
+        private final byte[] b;
+        private int pos;
+
+
+
+
+        Repeat(byte[] b)
+        {
+            this.b = b;
+        }
+
+
+
+
+        @Override
+        public int read()
+        {
+            int r = b[pos++] & 0xFF;
+
+            if (pos == b.length)
+            {
+                pos = 0;
+            }
+
+            return r;
+        }
+
+
+
+
+        @Override
+        public int read(byte[] out, int off, int len)
+        {
+            int n = Math.min(len, b.length - pos);
+
+            System.arraycopy(b, pos, out, off, n);
+            pos = (pos + n) % b.length;
+
+            return n;
+        }
+    }
+}
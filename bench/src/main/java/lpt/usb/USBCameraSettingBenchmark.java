@@ -0,0 +1,95 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class USBCameraSettingBenchmark
+{
+    @Param({"FNumber", "ShutterSpeed", "ISO", "ExposureCompensation"})
+    public String setting;
+
+    private Class<? extends CaptureSetting> cls;
+    private String current;
+    private String available;
+
+
+
+
+    @Setup
+    public void setup()
+    {
+        USBMessage nm = new USBMessage(USBMessageBenchmark.SETTINGS);
+
+        switch (setting)
+        {
+            case "FNumber":
+                cls = FNumber.class;
+                break;
+            case "ShutterSpeed":
+                cls = ShutterSpeed.class;
+                break;
+            case "ISO":
+                cls = ISO.class;
+                break;
+            default:
+                cls = ExposureCompensation.class;
+                break;
+        }
+
+        current = nm.getKey("current" + setting);
+        available = nm.getKey("available" + setting);
+
+        if (USBCameraSetting.getUSBSetting(current, available, cls) == null)
+        {
+            throw new IllegalStateException("No " + setting + " matches " + current);
+        }
+    }
+
+
+
+
+    @Benchmark
+    public CaptureSetting getUSBSetting()
+    {
+        return USBCameraSetting.getUSBSetting(current, available, cls);
+    }
+
+
+
+
+    @Benchmark
+    public CaptureSetting getMatchingSetting()
+    {
+        return USBCameraSetting.getMatchingSetting(current, cls);
+    }
+}
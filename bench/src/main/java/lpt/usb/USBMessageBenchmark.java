@@ -0,0 +1,132 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class USBMessageBenchmark
+{
+    private static final Pattern LEGACY_PATTERN = Pattern.compile("\\{typ:([^,]+),msg:([^,]*),err:([^,]*),data:(.*)\\}", Pattern.DOTALL);
+
+    public static final String STATUS = "{typ:Status,msg:,err:,data:BatteryLevel=87,ID=0,Status=Complete,Method=StillImage}";
+    public static final String EVENT = "{typ:Event,msg:,err:,data:Event=imageStored,ID=1042,Name=IMGP1042.PEF,Type=StillImage,Format=PEF,Date=1534156800,HasThumbnail=1,ImagePath=/tmp/lpt/IMGP1042.PEF}";
+    public static final String SETTINGS = "{typ:Settings,msg:,err:,data:"
+        + "currentFNumber=5.6,availableFNumber=1.4|1.6|1.8|2.0|2.2|2.5|2.8|3.2|3.5|4.0|4.5|5.0|5.6|6.3|7.1|8.0|9.0|10|11|13|14|16|18|20|22,"
+        + "currentShutterSpeed=1/125,availableShutterSpeed=30|25|20|15|13|10|8|6|5|4|3.2|2.5|2|1.6|1.3|1|0.8|0.6|0.5|0.4|0.3|1/4|1/5|1/6|1/8|1/10|1/13|1/15|1/20|1/25|1/30|1/40|1/50|1/60|1/80|1/100|1/125|1/160|1/200|1/250|1/320|1/400|1/500|1/640|1/800|1/1000|1/1250|1/1600|1/2000|1/2500|1/3200|1/4000|1/5000|1/6000|1/8000,"
+        + "currentISO=400,availableISO=100|125|160|200|250|320|400|500|640|800|1000|1250|1600|2000|2500|3200|4000|5000|6400|8000|10000|12800|16000|20000|25600,"
+        + "currentExposureCompensation=0.0,availableExposureCompensation=-5.0|-4.7|-4.3|-4.0|-3.7|-3.3|-3.0|-2.7|-2.3|-2.0|-1.7|-1.3|-1.0|-0.7|-0.3|0.0|0.3|0.7|1.0|1.3|1.7|2.0|2.3|2.7|3.0|3.3|3.7|4.0|4.3|4.7|5.0}";
+
+    @Param({"STATUS", "EVENT", "SETTINGS"})
+    public String kind;
+
+    private String payload;
+    private String key;
+
+
+
+
+    @Setup
+    public void setup()
+    {
+        switch (kind)
+        {
+            case "STATUS":
+                payload = STATUS;
+                key = "ID";
+                break;
+            case "EVENT":
+                payload = EVENT;
+                key = "Event";
+                break;
+            default:
+                payload = SETTINGS;
+                key = "currentExposureCompensation";
+                break;
+        }
+
+        if (!legacyParse(payload).equals(new USBMessage(payload).getData()))
+        {
+            throw new IllegalStateException("Parser mismatch for " + payload);
+        }
+    }
+
+
+
+
+    // Status polls and event dispatch read a handful of keys; mirror that access pattern.
+    @Benchmark
+    public String parseAndGetKey()
+    {
+        return new USBMessage(payload).getKey(key);
+    }
+
+
+
+
+    @Benchmark
+    public Map<String, String> parseAndGetData()
+    {
+        return new USBMessage(payload).getData();
+    }
+
+
+
+
+    @Benchmark
+    public Map<String, String> legacy()
+    {
+        return legacyParse(payload);
+    }
+
+
+
+
+    static Map<String, String> legacyParse(String s)
+    {
+        Map<String, String> m = new HashMap<>();
+        Matcher matcher = LEGACY_PATTERN.matcher(s.trim());
+
+        if (matcher.find())
+        {
+            for (String chunk : matcher.group(4).split(","))
+            {
+                String[] kv = chunk.split("=");
+
+                if (kv.length == 2)
+                {
+                    m.put(kv[0], kv[1]);
+                }
+            }
+        }
+
+        return m;
+    }
+}
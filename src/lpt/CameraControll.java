@@ -17,16 +17,25 @@ import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
+import lpt.event.EventDispatcher;
+import lpt.log.Log;
+import lpt.usb.USBCamera;
 import lpt.usb.USBCameraDeviceDetector;
+import lpt.usb.USBEventListener;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 public class CameraControll
 {
+    private static final Log LOG = Log.get("camera");
+    
     private CameraDevice cam;    
     private CaptureSetting tv;
     private CaptureSetting av;
@@ -34,9 +43,11 @@ public class CameraControll
     private CaptureSetting iso;
 
     private final Map<String, Boolean> captureState;
+    private final Map<String, CaptureSetting> applied;
     private final List<CameraImage> capturedImages;
     private final ImageDownloader dm;
     private final CameraEventListener cl;    
+    private final SettingsCoalescer settingsWriter;
 
     public static enum CONNECTION_MODE {MODE_USB};
     public final CONNECTION_MODE mode;    
@@ -44,46 +55,79 @@ public class CameraControll
     public static final int MIN_TIMEOUT = 15000;    
     public static final int KEEPALIVE = 45000;  
     public static final int STARTUP_RETRY = 5000;
+    public static final int SETTINGS_DEBOUNCE = 150;
+    public static final int SETTINGS_MAX_DELAY = 500;
         
 
     
     public CameraControll(CONNECTION_MODE mode)
     {
-        this.capturedImages = new ArrayList<>();
-        this.captureState = new HashMap<>();
+        this.capturedImages = new CopyOnWriteArrayList<>();
+        this.captureState = new ConcurrentHashMap<>();
+        this.applied = new ConcurrentHashMap<>();
         this.dm = new ImageDownloader(this);
         this.mode = mode;
+        this.settingsWriter = new SettingsCoalescer(this::setCaptureSettingsAsync, SETTINGS_DEBOUNCE, SETTINGS_MAX_DELAY);
         
-        this.cl = new CameraEventListener()
+        this.cl = new USBEventListener()
         {
             @Override
             public void captureComplete(CameraDevice sender, Capture capture)
             {     
-                new Thread(() ->
+                // Bookkeeping only, so it runs on the caller; anything that talks to the camera goes through the dispatcher.
+                if (capture != null)
                 {
-                    if (capture != null)
-                    {
-                        captureState.put(capture.getId(), true);
-                    }
-                }).start();
+                    captureState.put(capture.getId(), true);
+                }
             }   
 
             @Override
             public void imageStored(CameraDevice sender, CameraImage image)
             {
-                new Thread(() ->
-                {
-                    capturedImages.add(image);
-                }).start();
+                capturedImages.add(image);
             }
 
             @Override
             public void deviceDisconnected(CameraDevice sender)
             {   
-                new Thread(() ->
+                EventDispatcher.get().post(this, "deviceDisconnected", () ->
                 {
                     disconnect();
-                }).start();
+                });
+            }
+
+            @Override
+            public void deviceReconnected(CameraDevice sender)
+            {   
+                EventDispatcher.get().post(this, "deviceReconnected", () ->
+                {
+                    try
+                    {
+                        refreshCurrentSettings();
+                    }
+                    catch (CameraException ex)
+                    {
+                        LOG.warn("Could not refresh the camera settings: {}", ex);
+                    }
+                });
+            }
+
+            @Override
+            public void captureSettingsChanged(CameraDevice sender)
+            {   
+                applied.clear();
+                
+                EventDispatcher.get().postLatest(this, "captureSettingsChanged", () ->
+                {
+                    try
+                    {
+                        refreshCurrentSettings();
+                    }
+                    catch (CameraException ex)
+                    {
+                        LOG.warn("Could not refresh the camera settings: {}", ex);
+                    }
+                });
             }
         };
     }
@@ -166,7 +210,45 @@ public class CameraControll
         this.ev = l.get(1);
         this.av = l.get(2);
         this.iso = l.get(3);
+        
+        applied.clear();
+        settingsApplied(l, true);
     }    
+    
+    
+    
+    private List<CaptureSetting> changedSettings(List<CaptureSetting> settings)
+    {
+        List<CaptureSetting> l = new ArrayList<>();
+        
+        for (CaptureSetting s : settings)
+        {
+            if (!s.equals(applied.get(s.getName())))
+            {
+                l.add(s);
+            }
+        }
+        
+        return l;
+    }
+    
+    
+    
+    private void settingsApplied(List<CaptureSetting> settings, boolean ok)
+    {
+        for (CaptureSetting s : settings)
+        {
+            // After a failed write the camera's value is unknown, so the next write must go out.
+            if (ok && s.getValue() != null)
+            {
+                applied.put(s.getName(), s);
+            }
+            else
+            {
+                applied.remove(s.getName());
+            }
+        }
+    }
 
 
     
@@ -179,6 +261,25 @@ public class CameraControll
     
     
     
+    public CompletableFuture<Capture> captureImageWithSettingsAsync(boolean focus, List<CaptureSetting> settings)
+    {
+        settingsWriter.submit(settings);
+        
+        return settingsWriter.flush().thenCompose((Void v) -> captureStillImageAsync(focus));
+    }
+    
+    
+    
+    private static <T> CompletableFuture<T> failed(CameraException e)
+    {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(e);
+        
+        return f;
+    }
+    
+    
+    
     private CameraDevice getCam() throws CameraException
     {
         if (cam == null)
@@ -199,7 +300,7 @@ public class CameraControll
         if (isConnected())
         {  
 
-            toChange.addAll(settings);
+            toChange.addAll(changedSettings(settings));
 
             if (!toChange.isEmpty())
             {
@@ -208,6 +309,8 @@ public class CameraControll
                 {
                 	Response r = getCam().setCaptureSettings(toChange);
 
+                    settingsApplied(toChange, r != null && r.getResult() != Result.ERROR);
+
                     if (r != null)
                     {
                         if (r.getResult() == Result.ERROR)
@@ -232,6 +335,58 @@ public class CameraControll
 
 
     
+    public CompletableFuture<Void> setCaptureSettingsAsync(List<CaptureSetting> settings)
+    {
+        CameraDevice c = cam;
+        
+        if (c == null)
+        {
+            return failed(new CameraException("연결되지 않았습니다."));
+        }
+        
+        List<CaptureSetting> toChange = changedSettings(settings);
+        
+        if (toChange.isEmpty())
+        {
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        CompletableFuture<Response> f = (c instanceof USBCamera)
+            ? ((USBCamera) c).setCaptureSettingsAsync(toChange)
+            : CompletableFuture.supplyAsync(() -> c.setCaptureSettings(toChange));
+        
+        return f.whenComplete((Response r, Throwable ex) ->
+        {
+            settingsApplied(toChange, ex == null && r != null && r.getResult() != Result.ERROR);
+        }).thenAccept((Response r) ->
+        {
+            if (r == null)
+            {
+                throw new CompletionException(new CameraException("설정 구성 실패: 카메라에서 응답이 없습니다."));
+            }
+            else if (r.getResult() == Result.ERROR)
+            {
+                throw new CompletionException(new CameraException("설정 구성 실패: " + r.getErrors().get(0).getMessage()));
+            }
+        });
+    }
+
+
+    
+    public CompletableFuture<Void> queueCaptureSettings(List<CaptureSetting> settings)
+    {
+        return settingsWriter.submit(settings);
+    }
+    
+    
+    
+    public CompletableFuture<Void> flushCaptureSettings()
+    {
+        return settingsWriter.flush();
+    }
+
+
+    
     synchronized public final void connect(CameraEventListener el) throws CameraException
     {
         disconnect();
@@ -239,7 +394,7 @@ public class CameraControll
         List<CameraDevice> detectedDevices;
         
        
-        detectedDevices = USBCameraDeviceDetector.detect(USBCameraDeviceDetector.PF_USB_BRIDGE);
+        detectedDevices = USBCameraDeviceDetector.detect(USBCameraDeviceDetector.getDefaultPlatform());
 
         
         if (!detectedDevices.isEmpty())
@@ -288,6 +443,7 @@ public class CameraControll
         {
             CameraDevice c = cam;
             cam = null;            
+            applied.clear();
             c.disconnect(DeviceInterface.WLAN);
         }
     }
@@ -324,6 +480,29 @@ public class CameraControll
     }
     
 
+    public CompletableFuture<Void> focusAsync()
+    {
+        CameraDevice c = cam;
+        
+        if (c == null)
+        {
+            return failed(new CameraException("연결되지 않았습니다."));
+        }
+        
+        CompletableFuture<Response> f = (c instanceof USBCamera)
+            ? ((USBCamera) c).focusAsync()
+            : CompletableFuture.supplyAsync(() -> c.focus());
+        
+        return f.thenAccept((Response r) ->
+        {
+            if (r.getResult() != Result.OK)
+            {
+                throw new CompletionException(new CameraException("AF 실패: " + r.getErrors().get(0).getMessage()));
+            }
+        });
+    }
+    
+
     synchronized public Capture captureStillImage(boolean focus) throws CameraException
     {
         if (!isConnected())
@@ -346,8 +525,7 @@ public class CameraControll
         
         if (startCaptureResponse.getResult() == Result.OK)
         {
-            System.out.printf("촬영이 시작되었습니다.",
-                startCaptureResponse.getCapture().getId());
+            LOG.info("촬영이 시작되었습니다. {}", startCaptureResponse.getCapture().getId());
             
             return startCaptureResponse.getCapture();
         }
@@ -358,6 +536,33 @@ public class CameraControll
     }
     
 
+    public CompletableFuture<Capture> captureStillImageAsync(boolean focus)
+    {
+        CameraDevice c = cam;
+        
+        if (c == null)
+        {
+            return failed(new CameraException("연결되지 않았습니다."));
+        }
+        
+        CompletableFuture<StartCaptureResponse> f = (c instanceof USBCamera)
+            ? ((USBCamera) c).startCaptureAsync(focus)
+            : CompletableFuture.supplyAsync(() -> c.startCapture(focus));
+        
+        return f.thenApply((StartCaptureResponse r) ->
+        {
+            if (r.getResult() == Result.OK)
+            {
+                LOG.info("촬영이 시작되었습니다. {}", r.getCapture().getId());
+                
+                return r.getCapture();
+            }
+            
+            throw new CompletionException(new CameraException("촬영 실패: " + r.getErrors().get(0).getMessage()));
+        });
+    }
+    
+
     
     public final void addListener(CameraEventListener e)
     {
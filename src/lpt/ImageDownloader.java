@@ -17,13 +17,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import lpt.event.EventDispatcher;
+import lpt.log.Log;
+import lpt.metrics.FlightEventType.FlightEvent;
+import lpt.metrics.FlightEvents;
+import lpt.metrics.Metrics;
+import lpt.metrics.OperationMetrics;
 
 
 
 public class ImageDownloader
 {
+    private static final Log LOG = Log.get("download");
+    
     private final Map<CameraImage, FileOutputStream> toDownloadImages;
     private final Map<CameraImage, File> downloadedImages;
+    private final OperationMetrics imageMetrics;
+    private final OperationMetrics thumbnailMetrics;
     
     private ExecutorService downloadPool;
     private int numImagesProcessing;
@@ -38,6 +48,8 @@ public class ImageDownloader
         numImagesProcessing = 0;
         toDownloadImages = new HashMap<>();
         downloadedImages = new HashMap<>();
+        imageMetrics = Metrics.operation("ImageDownloader", "image");
+        thumbnailMetrics = Metrics.operation("ImageDownloader", "thumbnail");
         downloadPool = Executors.newFixedThreadPool(NUM_DOWNLOAD_THREADS);
     }
     
@@ -53,9 +65,9 @@ public class ImageDownloader
         
         if (l != null)
         {
-            new Thread(() -> {
+            EventDispatcher.get().post(l, "imageDownloaded", () -> {
                 l.imageDownloaded(null, null, false);
-            }).start();
+            });
         }
     }
     
@@ -113,6 +125,9 @@ public class ImageDownloader
                 FileOutputStream outputStream = null;
                 File f = null;
                 boolean error = false;
+                long started = System.nanoTime();
+                long bytes = 0;
+                FlightEvent trace = FlightEvents.DOWNLOAD.begin();
 
                 try
                 {
@@ -153,6 +168,8 @@ public class ImageDownloader
                         {                     
                             downloadedImages.put(i, f);
                             toDownloadImages.remove(i);
+                            bytes = outputStream.getChannel().position();
+                            (isThumbnail ? thumbnailMetrics : imageMetrics).addBytes(bytes);
                         }
                     }
 
@@ -162,9 +179,9 @@ public class ImageDownloader
                         final File fil = f;
                         final boolean isThumb = isThumbnail;
                         
-                        new Thread(() -> {
+                        EventDispatcher.get().post(l, "imageDownloaded", () -> {
                             l.imageDownloaded(img, fil, isThumb);    
-                        }).start();
+                        });
                     }
                 }
                 catch (IOException e)
@@ -174,14 +191,14 @@ public class ImageDownloader
                         final CameraImage img = i;
                         final boolean isThumb = isThumbnail;
                         
-                        new Thread(() -> {
+                        EventDispatcher.get().post(l, "imageDownloaded", () -> {
                             l.imageDownloaded(img, null, isThumb);    
-                        }).start();    
+                        });
                     }
                     
                     error = true;
                     
-                    System.out.println(e.toString());
+                    LOG.warn("Image download failed: {}", e);
                 }
            
                 finally
@@ -199,6 +216,12 @@ public class ImageDownloader
                     }
                     
                  
+                    OperationMetrics metrics = isThumbnail ? thumbnailMetrics : imageMetrics;
+                    
+                    metrics.record(System.nanoTime() - started,
+                        error ? OperationMetrics.Outcome.ERROR : OperationMetrics.Outcome.OK);
+                    trace.commit(i.getName(), isThumbnail, bytes, error ? "ERROR" : "OK");
+                    
                     if (error)
                     {
                         if (f != null)
@@ -0,0 +1,124 @@
+/**
+ * @author Libert
+ */
+
+
+package lpt;
+
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+
+
+class SettingsCoalescer
+{
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor((Runnable r) ->
+    {
+        Thread t = new Thread(r, "Camera settings coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    private final Function<List<CaptureSetting>, CompletableFuture<Void>> send;
+    private final long debounce;
+    private final long maxDelay;
+    
+    private final Map<String, CaptureSetting> pending;
+    private CompletableFuture<Void> batch;
+    private CompletableFuture<Void> last;
+    private ScheduledFuture<?> timer;
+    private long firstAt;
+    
+
+    
+    public SettingsCoalescer(Function<List<CaptureSetting>, CompletableFuture<Void>> send, int debounceMillis, int maxDelayMillis)
+    {
+        this.send = send;
+        this.debounce = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.pending = new LinkedHashMap<>();
+        this.last = CompletableFuture.completedFuture(null);
+    }
+    
+
+    
+    synchronized public CompletableFuture<Void> submit(List<CaptureSetting> settings)
+    {
+        if (settings.isEmpty())
+        {
+            return batch != null ? batch : CompletableFuture.completedFuture(null);
+        }
+        
+        long now = System.nanoTime();
+        
+        if (pending.isEmpty())
+        {
+            firstAt = now;
+            batch = new CompletableFuture<>();
+        }
+        
+        // Last writer wins per setting; the map keeps the first-seen order for the write.
+        for (CaptureSetting s : settings)
+        {
+            pending.put(s.getName(), s);
+        }
+        
+        if (timer != null)
+        {
+            timer.cancel(false);
+        }
+        
+        // A steady stream of changes (e.g. scrolling a list) still goes out every maxDelay.
+        long delay = Math.max(0, Math.min(debounce, firstAt + maxDelay - now));
+        timer = TIMER.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+        
+        return batch;
+    }
+    
+
+    
+    synchronized public CompletableFuture<Void> flush()
+    {
+        if (timer != null)
+        {
+            timer.cancel(false);
+            timer = null;
+        }
+        
+        if (pending.isEmpty())
+        {
+            return last.handle((Void v, Throwable ex) -> (Void) null);
+        }
+        
+        List<CaptureSetting> l = new ArrayList<>(pending.values());
+        CompletableFuture<Void> done = batch;
+        pending.clear();
+        batch = null;
+        
+        // One write at a time, so a later batch can never overtake an earlier one.
+        last = last.handle((Void v, Throwable ex) -> (Void) null).thenCompose((Void v) -> send.apply(l));
+        
+        last.whenComplete((Void v, Throwable ex) ->
+        {
+            if (ex == null)
+            {
+                done.complete(null);
+            }
+            else
+            {
+                done.completeExceptionally(ex);
+            }
+        });
+        
+        return done;
+    }
+}
@@ -0,0 +1,346 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.event;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import lpt.log.Log;
+import lpt.metrics.Metrics;
+import lpt.metrics.OperationMetrics;
+
+
+
+
+/*
+ * Runs camera listener callbacks on a small, bounded pool of named daemon threads instead of one new thread per
+ * listener per event.  Every listener gets its own ListenerMailbox, so it sees its events in order and a slow
+ * listener only backs up its own queue; what happens when that queue is full is chosen per listener (see
+ * OverflowPolicy), defaulting to lpt.events.mailbox and lpt.events.policy.  The pool queue holds at most one drain
+ * task per mailbox, so it is the mailboxes that bound the backlog.  Callbacks never run on the posting thread, and
+ * a thread marked with enterIoLoop is never made to wait for a full mailbox either.
+ *
+ * Every event type is published as lpt:type=EventDispatcher,name=<event>, timed from posting until the callback
+ * returns, the pool as lpt:type=EventDispatcher,name=pool and each mailbox as lpt:type=EventMailbox,name=<listener>.
+ */
+public final class EventDispatcher implements EventDispatcherMBean
+{
+    public static final String GROUP = "EventDispatcher";
+    public static final String MAILBOX_GROUP = "EventMailbox";
+    public static final int THREADS = Integer.getInteger("lpt.events.threads", 4);
+    public static final int MAILBOX = Integer.getInteger("lpt.events.mailbox", 64);
+    public static final OverflowPolicy POLICY = OverflowPolicy.parse(System.getProperty("lpt.events.policy"), OverflowPolicy.COALESCE);
+
+    private static final Log LOG = Log.get("events");
+    private static final ThreadLocal<ListenerMailbox> DRAINING = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> IO_LOOP = new ThreadLocal<>();
+    private static final EventDispatcher INSTANCE = new EventDispatcher();
+
+    private final ThreadPoolExecutor pool;
+    private final Map<Object, ListenerMailbox> mailboxes;
+    private final AtomicLong dispatched;
+    private final AtomicLong failures;
+
+
+
+
+    private EventDispatcher()
+    {
+        int threads = Math.max(1, THREADS);
+        AtomicInteger n = new AtomicInteger();
+
+        this.mailboxes = new WeakHashMap<>();
+        this.dispatched = new AtomicLong();
+        this.failures = new AtomicLong();
+
+        this.pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            (Runnable r) ->
+            {
+                Thread t = new Thread(r, "Camera events " + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+        this.pool.allowCoreThreadTimeOut(true);
+
+        register(this, GROUP, "pool");
+    }
+
+
+
+
+    public static EventDispatcher get()
+    {
+        return INSTANCE;
+    }
+
+
+
+
+    // Queues one callback for listener behind everything already posted to it; event names it for metrics.
+    public void post(Object listener, String event, Runnable callback)
+    {
+        dispatched.incrementAndGet();
+        mailbox(listener).post(event, false, callback);
+    }
+
+
+
+
+    // As post, for events that only carry the latest state and may be coalesced under OverflowPolicy.COALESCE.
+    public void postLatest(Object listener, String event, Runnable callback)
+    {
+        dispatched.incrementAndGet();
+        mailbox(listener).post(event, true, callback);
+    }
+
+
+
+
+    public void configure(Object listener, int capacity, OverflowPolicy policy)
+    {
+        ListenerMailbox m;
+
+        synchronized (mailboxes)
+        {
+            m = mailboxes.get(listener);
+
+            if (m == null)
+            {
+                m = open(listener, capacity, policy);
+            }
+        }
+
+        m.configure(capacity, policy);
+    }
+
+
+
+
+    // Forgets the listener's mailbox and its metrics; callbacks already queued are still delivered.
+    public void release(Object listener)
+    {
+        ListenerMailbox m;
+
+        synchronized (mailboxes)
+        {
+            m = mailboxes.remove(listener);
+        }
+
+        if (m != null)
+        {
+            unregister(MAILBOX_GROUP, m.getName());
+        }
+    }
+
+
+
+
+    private ListenerMailbox mailbox(Object listener)
+    {
+        synchronized (mailboxes)
+        {
+            ListenerMailbox m = mailboxes.get(listener);
+
+            return m != null ? m : open(listener, MAILBOX, POLICY);
+        }
+    }
+
+
+
+
+    private ListenerMailbox open(Object listener, int capacity, OverflowPolicy policy)
+    {
+        String name = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener));
+        ListenerMailbox m = new ListenerMailbox(this, name, capacity, policy);
+
+        mailboxes.put(listener, m);
+        register(m, MAILBOX_GROUP, name);
+
+        return m;
+    }
+
+
+
+
+    void execute(Runnable drain)
+    {
+        pool.execute(drain);
+    }
+
+
+
+
+    void delivered(ListenerMailbox m, String event, long posted, RuntimeException failure)
+    {
+        OperationMetrics.Outcome outcome = OperationMetrics.Outcome.OK;
+
+        if (failure != null)
+        {
+            outcome = OperationMetrics.Outcome.ERROR;
+            failures.incrementAndGet();
+
+            LOG.error("{} failed handling {}: {}", m.getName(), event, failure);
+        }
+
+        Metrics.operation(GROUP, event).record(System.nanoTime() - posted, outcome);
+    }
+
+
+
+
+    // Marks the calling thread as an I/O loop shared by several sockets: posting from it never waits for room.
+    public static void enterIoLoop()
+    {
+        IO_LOOP.set(Boolean.TRUE);
+    }
+
+
+
+
+    static boolean isIoLoop()
+    {
+        return IO_LOOP.get() != null;
+    }
+
+
+
+
+    // The mailbox being drained on this thread, if any.
+    static ListenerMailbox draining()
+    {
+        return DRAINING.get();
+    }
+
+
+
+
+    static ListenerMailbox enter(ListenerMailbox m)
+    {
+        ListenerMailbox previous = DRAINING.get();
+
+        if (m == null)
+        {
+            DRAINING.remove();
+        }
+        else
+        {
+            DRAINING.set(m);
+        }
+
+        return previous;
+    }
+
+
+
+
+    private static void register(Object mbean, String type, String name)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = objectName(type, name);
+
+            if (!server.isRegistered(on))
+            {
+                server.registerMBean(mbean, on);
+            }
+        }
+        catch (JMException ex)
+        {
+            LOG.warn("Could not register metrics for {} {}: {}", type, name, ex);
+        }
+    }
+
+
+
+
+    private static void unregister(String type, String name)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = objectName(type, name);
+
+            if (server.isRegistered(on))
+            {
+                server.unregisterMBean(on);
+            }
+        }
+        catch (JMException ex)
+        {
+            LOG.warn("Could not unregister metrics for {} {}: {}", type, name, ex);
+        }
+    }
+
+
+
+
+    private static ObjectName objectName(String type, String name) throws JMException
+    {
+        Hashtable<String, String> keys = new Hashtable<>();
+        keys.put("type", type);
+        keys.put("name", name);
+
+        return new ObjectName(Metrics.DOMAIN, keys);
+    }
+
+
+
+
+    @Override
+    public int getThreads()
+    {
+        return pool.getPoolSize();
+    }
+
+
+
+
+    @Override
+    public int getActive()
+    {
+        return pool.getActiveCount();
+    }
+
+
+
+
+    @Override
+    public int getQueued()
+    {
+        return pool.getQueue().size();
+    }
+
+
+
+
+    @Override
+    public long getDispatched()
+    {
+        return dispatched.get();
+    }
+
+
+
+
+    @Override
+    public long getFailures()
+    {
+        return failures.get();
+    }
+}
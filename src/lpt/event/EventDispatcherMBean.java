@@ -0,0 +1,23 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.event;
+
+
+
+
+public interface EventDispatcherMBean
+{
+    public int getThreads();
+
+    public int getActive();
+
+    public int getQueued();
+
+    public long getDispatched();
+
+    public long getFailures();
+}
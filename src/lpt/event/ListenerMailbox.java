@@ -0,0 +1,390 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.event;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+
+
+/*
+ * Ordered queue of callbacks for one listener.  At most one pool thread drains it at a time, so the listener sees
+ * its events one after another and in the order they were posted.  The mailbox never holds the listener itself,
+ * only the pending callbacks, so a listener that goes away is not kept alive by its metrics.
+ */
+final class ListenerMailbox implements ListenerMailboxMBean
+{
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final EventDispatcher dispatcher;
+    private final String name;
+    private final ArrayDeque<Entry> pending;
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    private final AtomicLong delivered;
+    private final AtomicLong dropped;
+    private final AtomicLong coalesced;
+    private final AtomicLong overflowed;
+    private final AtomicLong maxLag;
+
+    private volatile int capacity;
+    private volatile OverflowPolicy policy;
+    private boolean scheduled;
+    private int maxDepth;
+
+
+
+
+    ListenerMailbox(EventDispatcher dispatcher, String name, int capacity, OverflowPolicy policy)
+    {
+        this.dispatcher = dispatcher;
+        this.name = name;
+        this.pending = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.delivered = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.overflowed = new AtomicLong();
+        this.maxLag = new AtomicLong();
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+
+
+
+    String getName()
+    {
+        return name;
+    }
+
+
+
+
+    void configure(int capacity, OverflowPolicy policy)
+    {
+        lock.lock();
+
+        try
+        {
+            this.capacity = Math.max(1, capacity);
+            this.policy = policy;
+
+            notFull.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+
+
+    // latest marks events that only carry the newest state and may replace an undelivered one under COALESCE.
+    void post(String event, boolean latest, Runnable callback)
+    {
+        ListenerMailbox current = EventDispatcher.draining();
+        Entry e = new Entry(event, latest, callback, System.nanoTime());
+
+        if (current == this)
+        {
+            // Posted by the listener's own callback: running it now is what a direct call would have done.
+            deliver(e);
+            return;
+        }
+
+        boolean schedule;
+
+        lock.lock();
+
+        try
+        {
+            if (latest && policy == OverflowPolicy.COALESCE && coalesce(e))
+            {
+                return;
+            }
+
+            while (pending.size() >= capacity)
+            {
+                if (policy == OverflowPolicy.DROP_OLDEST)
+                {
+                    pending.poll();
+                    dropped.incrementAndGet();
+                }
+                else if (current != null || EventDispatcher.isIoLoop() || Thread.currentThread().isInterrupted())
+                {
+                    // A pool thread never waits here: with every worker parked on a full mailbox nothing would be
+                    // left to drain them.  Nor does an I/O loop, which would stall every socket it serves.
+                    overflowed.incrementAndGet();
+                    break;
+                }
+                else
+                {
+                    try
+                    {
+                        notFull.await();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            pending.add(e);
+            maxDepth = Math.max(maxDepth, pending.size());
+
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if (schedule)
+        {
+            dispatcher.execute(this::drain);
+        }
+    }
+
+
+
+
+    private boolean coalesce(Entry e)
+    {
+        for (Entry p : pending)
+        {
+            if (p.latest && p.event.equals(e.event))
+            {
+                // Keeps its place in the queue and its posting time, so lag still reflects the oldest update.
+                p.callback = e.callback;
+                coalesced.incrementAndGet();
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+
+
+    private void drain()
+    {
+        ListenerMailbox previous = EventDispatcher.enter(this);
+
+        try
+        {
+            while (true)
+            {
+                Entry e;
+
+                lock.lock();
+
+                try
+                {
+                    e = pending.poll();
+
+                    if (e == null)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+
+                    notFull.signalAll();
+                }
+                finally
+                {
+                    lock.unlock();
+                }
+
+                deliver(e);
+            }
+        }
+        finally
+        {
+            EventDispatcher.enter(previous);
+        }
+    }
+
+
+
+
+    private void deliver(Entry e)
+    {
+        long lag = System.nanoTime() - e.posted;
+        long m;
+
+        while (lag > (m = maxLag.get()) && !maxLag.compareAndSet(m, lag))
+        {
+
+        }
+
+        RuntimeException failure = null;
+
+        try
+        {
+            e.callback.run();
+        }
+        catch (RuntimeException ex)
+        {
+            failure = ex;
+        }
+        finally
+        {
+            delivered.incrementAndGet();
+            dispatcher.delivered(this, e.event, e.posted, failure);
+        }
+    }
+
+
+
+
+    @Override
+    public String getPolicy()
+    {
+        return policy.name();
+    }
+
+
+
+
+    @Override
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+
+
+
+    @Override
+    public int getDepth()
+    {
+        lock.lock();
+
+        try
+        {
+            return pending.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+
+
+    @Override
+    public int getMaxDepth()
+    {
+        lock.lock();
+
+        try
+        {
+            return maxDepth;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+
+
+    @Override
+    public long getDelivered()
+    {
+        return delivered.get();
+    }
+
+
+
+
+    @Override
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+
+
+
+    @Override
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+
+
+
+    @Override
+    public long getOverflowed()
+    {
+        return overflowed.get();
+    }
+
+
+
+
+    // Age of the oldest undelivered event.
+    @Override
+    public double getLagMillis()
+    {
+        lock.lock();
+
+        try
+        {
+            Entry head = pending.peek();
+
+            return head == null ? 0 : (System.nanoTime() - head.posted) / NANOS_PER_MILLI;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+
+
+    // Longest time an event has waited between posting and delivery.
+    @Override
+    public double getMaxLagMillis()
+    {
+        return maxLag.get() / NANOS_PER_MILLI;
+    }
+
+
+
+
+    private static final class Entry
+    {
+        private final String event;
+        private final boolean latest;
+        private final long posted;
+        private Runnable callback;
+
+        private Entry(String event, boolean latest, Runnable callback, long posted)
+        {
+            this.event = event;
+            this.latest = latest;
+            this.callback = callback;
+            this.posted = posted;
+        }
+    }
+}
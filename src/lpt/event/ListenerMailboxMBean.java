@@ -0,0 +1,33 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.event;
+
+
+
+
+public interface ListenerMailboxMBean
+{
+    public String getPolicy();
+
+    public int getCapacity();
+
+    public int getDepth();
+
+    public int getMaxDepth();
+
+    public long getDelivered();
+
+    public long getDropped();
+
+    public long getCoalesced();
+
+    public long getOverflowed();
+
+    public double getLagMillis();
+
+    public double getMaxLagMillis();
+}
@@ -0,0 +1,46 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.event;
+
+
+
+
+/*
+ * What a listener mailbox does with a new event once it holds its capacity.
+ */
+public enum OverflowPolicy
+{
+    // Wait for the listener to catch up.
+    BLOCK,
+
+    // Discard the oldest undelivered event.
+    DROP_OLDEST,
+
+    // Replace an undelivered event of the same type when the event only carries the latest state (live view frames,
+    // settings changes); anything else waits as with BLOCK.
+    COALESCE;
+
+
+
+
+    public static OverflowPolicy parse(String s, OverflowPolicy fallback)
+    {
+        if (s == null)
+        {
+            return fallback;
+        }
+
+        try
+        {
+            return valueOf(s.trim().toUpperCase(java.util.Locale.ROOT));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return fallback;
+        }
+    }
+}
@@ -12,11 +12,14 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Scanner;
 import javax.swing.table.DefaultTableModel;
+import lpt.log.Log;
 
 
 public class CameraSet extends DefaultTableModel implements java.io.Serializable
 {
     public static final String FOCUS_ITEM_NAME = "Focus";
+
+    private static final Log LOG = Log.get("gui");
     
     public CameraSet (Object[][] o, String[] s)
     {
@@ -57,7 +60,7 @@ public class CameraSet extends DefaultTableModel implements java.io.Serializable
         }
         catch (NullPointerException i)
         {
-           System.err.println("Did not save unitialized UI state");
+           LOG.warn("Did not save unitialized UI state");
         }
 
         return false;
@@ -135,7 +138,7 @@ public class CameraSet extends DefaultTableModel implements java.io.Serializable
         }
         catch (IOException i)
         {
-           System.out.println("Failed to parse save file.");
+           LOG.warn("Failed to parse save file.");
         }
       
         return false;
@@ -11,12 +11,16 @@ import com.ricoh.camera.sdk.wireless.api.CameraEventListener;
 import com.ricoh.camera.sdk.wireless.api.CameraImage;
 import com.ricoh.camera.sdk.wireless.api.Capture;
 import lpt.Listener;
+import lpt.event.EventDispatcher;
+import lpt.log.Log;
 import java.io.File;
 
 
 
 public class GuiListener extends CameraEventListener
 {
+    private static final Log LOG = Log.get("gui");
+    
     private final Listener g;
     
     public GuiListener(Listener g)
@@ -27,44 +31,40 @@ public class GuiListener extends CameraEventListener
     @Override
     public void imageStored(CameraDevice sender, CameraImage image)
     {
-        new Thread(() ->
-        {
-            System.out.printf("사진이 저장되었습니다. %s%n", image.getName());
+        LOG.info("사진이 저장되었습니다. {}", image.getName());
 
+        EventDispatcher.get().post(this, "imageStored", () ->
+        {
             g.imageStored(image);
-        }).start();
+        });
     }
     
     public void imageDownloaded(CameraImage image, File f, boolean isThumbnail)
     {  
-        new Thread(() ->
+        EventDispatcher.get().post(this, "imageDownloaded", () ->
         {
             g.imageDownloaded(image, f, isThumbnail);
-        }).start();
+        });
     }
 
     @Override
     public void captureComplete(CameraDevice sender, Capture capture)
     {      
-        new Thread(() ->
+        if (sender != null && capture != null)
         {
-            if (sender != null && capture != null)
-            {
-                System.out.printf("모든 프로세스가 완료되었습니다. %s%n", capture.getId());
-            }
-
-        }).start();          
+            LOG.info("모든 프로세스가 완료되었습니다. {}", capture.getId());
+        }
     }
 
     @Override
     public void deviceDisconnected(CameraDevice sender)
     {   
-        new Thread(() ->
-        {
-            System.out.println("연결이 끊어졌습니다.");
+        LOG.info("연결이 끊어졌습니다.");
 
+        EventDispatcher.get().post(this, "deviceDisconnected", () ->
+        {
             g.disconnect();
-        }).start();
+        });
     }
     
 
@@ -5,6 +5,7 @@
 package lpt.gui;
 
 import com.ricoh.camera.sdk.wireless.api.CameraImage;
+import com.ricoh.camera.sdk.wireless.api.Capture;
 import com.ricoh.camera.sdk.wireless.api.ImageFormat;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
@@ -18,8 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
 import java.util.prefs.Preferences;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.ImageIcon;
@@ -27,6 +27,7 @@ import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import java.net.URI; 
 import java.net.URISyntaxException;
 import java.util.Date;
@@ -37,6 +38,7 @@ import lpt.CameraControll;
 import lpt.CameraControll.CONNECTION_MODE;
 import lpt.CameraException;
 import lpt.Listener;
+import lpt.log.Log;
 
 
 import javax.swing.GroupLayout.Alignment;
@@ -50,6 +52,7 @@ import java.awt.Font;
 
 public class MainWindow extends javax.swing.JFrame implements Listener
 {
+    private static final Log LOG = Log.get("gui");
 
     private CameraControll m;        
     private String saveFilePath;
@@ -59,7 +62,6 @@ public class MainWindow extends javax.swing.JFrame implements Listener
     private Boolean doAutoReconnect;
     private Boolean doFocus;
     private Boolean bypassReconnect; 
-    private ScheduledExecutorService pool;
     private Boolean initializing;
     private final GuiListener gl;
     private final Preferences prefs;       
@@ -82,7 +84,6 @@ public class MainWindow extends javax.swing.JFrame implements Listener
         
 
         prefs = Preferences.userRoot().node(this.getClass().getName());
-        pool = Executors.newScheduledThreadPool(1);
         gl = new GuiListener(
         		this);
         bypassReconnect = false;        
@@ -102,26 +103,18 @@ public class MainWindow extends javax.swing.JFrame implements Listener
         JMenuItem focusItem = new JMenuItem("AF");
         focusItem.addActionListener((ActionEvent e) ->
         {     
-            (new Thread(() -> 
+            m.focusAsync().exceptionally((Throwable ex) -> 
             {  
-                try
-                {
-                    m.focus();
-                }
-                catch (CameraException ex)
-                {
-                    JOptionPane.showMessageDialog(null, "AF실패. 카메라 또는 렌즈가 MF상태인지 확인하세요.");
-                }
-            })).start();        
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, "AF실패. 카메라 또는 렌즈가 MF상태인지 확인하세요."));
+                
+                return null;
+            });        
         });       
         
         JMenuItem captureItem = new JMenuItem("촬영 세팅");
         captureItem.addActionListener((ActionEvent e) ->
         {     
-            (new Thread(() -> 
-            {  
-                captureButtonActionPerformed(null); 
-            })).start();        
+            captureButtonActionPerformed(null); 
         });   
         setVisible(true);
     }
@@ -168,7 +161,7 @@ public class MainWindow extends javax.swing.JFrame implements Listener
         	 new Thread(() -> {
         		 
         		 Date today = new Date();
-        		 System.out.println(today);      		        
+        		 LOG.debug("{}", today);      		        
         		 SimpleDateFormat date = new SimpleDateFormat("yyyyMMdd");
 
         		 String fp = saveFilePath+File.separator+date.format(today);
@@ -210,11 +203,11 @@ public class MainWindow extends javax.swing.JFrame implements Listener
             try
             {
                 Desktop.getDesktop().open(new File(f.getAbsolutePath()));
-            	System.out.println("다운로드 완료 : " + f.getAbsolutePath());
+            	LOG.info("다운로드 완료 : {}", f.getAbsolutePath());
             }
             catch (IOException ex)
             {
-            	System.out.println("다운로드 완료 : " + f.getAbsolutePath());
+            	LOG.info("다운로드 완료 : {}", f.getAbsolutePath());
             }       
         } 
         
@@ -233,7 +226,7 @@ public class MainWindow extends javax.swing.JFrame implements Listener
             {
                 if (!bypassReconnect)
                 {
-                    System.out.println(String.format("촬영 중단. 재연결 시작."));
+                    LOG.info("촬영 중단. 재연결 시작.");
                     new Thread(() -> 
                     {
                         m.disconnect();
@@ -279,7 +272,7 @@ public class MainWindow extends javax.swing.JFrame implements Listener
                 } 
                 catch (CameraException ex)
                 {
-                    System.out.println(ex.toString());
+                    LOG.warn("Camera connection failed: {}", ex);
                     try
                     {
                         Thread.sleep(1000);
@@ -708,17 +701,12 @@ public class MainWindow extends javax.swing.JFrame implements Listener
     {
         if (!this.initializing)
         {
-            (new Thread(() -> 
+            m.queueCaptureSettings(getSettings(source)).exceptionally((Throwable ex) -> 
             {   
-                try
-                {
-                    m.setCaptureSettings(getSettings(source));
-                }
-                catch (CameraException ex)
-                {
-                    System.out.println(ex.toString());
-                }
-            })).start();    
+                LOG.warn("Capture settings were not applied: {}", ex.getCause() != null ? ex.getCause() : ex);
+                
+                return null;
+            });    
         }
     }
     
@@ -729,25 +717,18 @@ public class MainWindow extends javax.swing.JFrame implements Listener
         captureButton.setEnabled(false);                
         final boolean focusSetting = doFocus;
         
-        Runnable r = new Thread(() -> 
+        if (evt != null)
         {
-            try
-            {
-                if (evt != null)
-                {
-                    m.setCaptureSettings(getSettings(null));
-                }                
-                m.captureStillImage(focusSetting);                
-            }
-            catch (CameraException ex)
-            {
-            }
-            finally
+            m.queueCaptureSettings(getSettings(null));
+        }
+        
+        CompletableFuture<Void> settings = m.flushCaptureSettings();
+        
+        settings.thenCompose((Void v) -> m.captureStillImageAsync(focusSetting))
+            .whenComplete((Capture c, Throwable ex) -> 
             {
-                captureButton.setEnabled(true);
-            }
-        });        
-            pool.submit(r);  
+                SwingUtilities.invokeLater(() -> captureButton.setEnabled(true));
+            });
     }
 
 
@@ -0,0 +1,392 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.log;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+
+/*
+ * Hands log records to a single writer thread.  Records live in a fixed pool, so the calling thread only fills in
+ * a few fields and never formats, allocates or takes the System.out lock.  When the pool is exhausted the record
+ * is dropped and counted rather than blocking an I/O thread; the writer reports the count once it catches up.
+ */
+final class AsyncAppender
+{
+    public static final int CAPACITY = Integer.getInteger("lpt.logQueue", 8192);
+    public static final boolean JSON = "json".equals(System.getProperty("lpt.logFormat"));
+    public static final String FILE = System.getProperty("lpt.logFile");
+
+    private static final long SHUTDOWN_FLUSH = 1000;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+        .withZone(ZoneId.systemDefault());
+
+    private static final AsyncAppender INSTANCE = new AsyncAppender();
+
+    private final ArrayBlockingQueue<Entry> free;
+    private final ArrayBlockingQueue<Entry> ready;
+    private final AtomicLong dropped;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final StringBuilder line;
+    private final Thread writer;
+
+
+
+
+    private AsyncAppender()
+    {
+        int capacity = Math.max(16, CAPACITY);
+
+        this.free = new ArrayBlockingQueue<>(capacity);
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.dropped = new AtomicLong();
+        this.line = new StringBuilder(256);
+
+        for (int i = 0; i < capacity; i++)
+        {
+            free.add(new Entry());
+        }
+
+        PrintStream file = null;
+
+        if (FILE != null)
+        {
+            try
+            {
+                file = new PrintStream(new FileOutputStream(FILE, true), false, "UTF-8");
+            }
+            catch (FileNotFoundException | java.io.UnsupportedEncodingException ex)
+            {
+                System.err.println("    Could not open log file " + FILE + ": " + ex);
+            }
+        }
+
+        this.out = file != null ? file : System.out;
+        this.err = file != null ? file : System.err;
+
+        this.writer = new Thread(this::run, "Log writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH), "Log flush"));
+    }
+
+
+
+
+    public static AsyncAppender get()
+    {
+        return INSTANCE;
+    }
+
+
+
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+
+
+
+    public void append(LogLevel level, String subsystem, String msg, int n, Object a, Object b, Object c, Throwable thrown)
+    {
+        Entry e = free.poll();
+
+        if (e == null)
+        {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        e.time = System.currentTimeMillis();
+        e.level = level;
+        e.subsystem = subsystem;
+        e.thread = Thread.currentThread().getName();
+        e.msg = msg;
+        e.n = n;
+        e.a = a;
+        e.b = b;
+        e.c = c;
+        e.thrown = thrown;
+
+        // Every entry comes from the pool, so ready always has room.
+        ready.offer(e);
+    }
+
+
+
+
+    // Waits until everything queued so far has been written, or the timeout passes.
+    public void flush(long timeoutMillis)
+    {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while ((!ready.isEmpty() || free.remainingCapacity() > 0) && System.nanoTime() < end)
+        {
+            try
+            {
+                Thread.sleep(5);
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        out.flush();
+        err.flush();
+    }
+
+
+
+
+    private void run()
+    {
+        long reported = 0;
+
+        while (true)
+        {
+            Entry e;
+
+            try
+            {
+                e = ready.take();
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+
+            write(e);
+            e.clear();
+            free.offer(e);
+
+            if (ready.isEmpty())
+            {
+                long d = dropped.get();
+
+                if (d != reported)
+                {
+                    Entry note = new Entry();
+                    note.time = System.currentTimeMillis();
+                    note.level = LogLevel.WARN;
+                    note.subsystem = "log";
+                    note.thread = writer.getName();
+                    note.msg = "{} log records dropped, the queue was full";
+                    note.n = 1;
+                    note.a = d - reported;
+
+                    write(note);
+                    reported = d;
+                }
+
+                out.flush();
+                err.flush();
+            }
+        }
+    }
+
+
+
+
+    private void write(Entry e)
+    {
+        line.setLength(0);
+
+        try
+        {
+            if (JSON)
+            {
+                json(e);
+            }
+            else
+            {
+                text(e);
+            }
+        }
+        catch (RuntimeException ex)
+        {
+            // A broken toString() on an argument must not take the writer down.
+            line.append(" [unprintable: ").append(ex).append(']');
+        }
+
+        (e.level.compareTo(LogLevel.WARN) >= 0 ? err : out).println(line);
+    }
+
+
+
+
+    private void text(Entry e)
+    {
+        TIME.formatTo(Instant.ofEpochMilli(e.time), line);
+        line.append(' ').append(e.level.name());
+
+        for (int i = e.level.name().length(); i < 5; i++)
+        {
+            line.append(' ');
+        }
+
+        line.append(' ').append(e.subsystem).append(" [").append(e.thread).append("] ");
+        render(e, line);
+
+        if (e.thrown != null)
+        {
+            line.append(System.lineSeparator()).append(stack(e.thrown));
+        }
+    }
+
+
+
+
+    private void json(Entry e)
+    {
+        StringBuilder msg = new StringBuilder();
+        render(e, msg);
+
+        line.append("{\"ts\":").append(e.time);
+        line.append(",\"level\":\"").append(e.level.name());
+        line.append("\",\"subsystem\":");
+        quote(e.subsystem, line);
+        line.append(",\"thread\":");
+        quote(e.thread, line);
+        line.append(",\"msg\":");
+        quote(msg, line);
+
+        if (e.thrown != null)
+        {
+            line.append(",\"stack\":");
+            quote(stack(e.thrown), line);
+        }
+
+        line.append('}');
+    }
+
+
+
+
+    private static void render(Entry e, StringBuilder sb)
+    {
+        String msg = e.msg == null ? "null" : e.msg;
+        int arg = 0;
+        int from = 0;
+        int at;
+
+        while (arg < e.n && (at = msg.indexOf("{}", from)) >= 0)
+        {
+            sb.append(msg, from, at);
+            sb.append(String.valueOf(arg == 0 ? e.a : arg == 1 ? e.b : e.c));
+            arg++;
+            from = at + 2;
+        }
+
+        sb.append(msg, from, msg.length());
+    }
+
+
+
+
+    private static String stack(Throwable t)
+    {
+        StringWriter sw = new StringWriter();
+        t.printStackTrace(new PrintWriter(sw));
+
+        // printStackTrace ends with a line separator, and println adds another.
+        String s = sw.toString();
+        int end = s.length();
+
+        while (end > 0 && Character.isWhitespace(s.charAt(end - 1)))
+        {
+            end--;
+        }
+
+        return s.substring(0, end);
+    }
+
+
+
+
+    private static void quote(CharSequence s, StringBuilder sb)
+    {
+        sb.append('"');
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            char ch = s.charAt(i);
+
+            switch (ch)
+            {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20)
+                    {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    }
+                    else
+                    {
+                        sb.append(ch);
+                    }
+            }
+        }
+
+        sb.append('"');
+    }
+
+
+
+
+    private static final class Entry
+    {
+        long time;
+        LogLevel level;
+        String subsystem;
+        String thread;
+        String msg;
+        int n;
+        Object a;
+        Object b;
+        Object c;
+        Throwable thrown;
+
+        void clear()
+        {
+            msg = null;
+            a = null;
+            b = null;
+            c = null;
+            thrown = null;
+        }
+    }
+}
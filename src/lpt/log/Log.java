@@ -0,0 +1,291 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+
+/*
+ * Per-subsystem logger.  Subsystems are dotted names ("usb.protocol") and take their level from the most specific
+ * lpt.log.<name> property, falling back to lpt.log (INFO by default).  Messages use {} placeholders and are only
+ * rendered on the writer thread, so a disabled call costs a level check and nothing else.  A Throwable passed last
+ * to warn or error fills the next placeholder like any argument and is followed by its stack trace.
+ */
+public final class Log
+{
+    public static final String PROPERTY = "lpt.log";
+
+    private static final Map<String, Log> LOGS = new ConcurrentHashMap<>();
+    private static final Map<String, LogLevel> OVERRIDES = new ConcurrentHashMap<>();
+
+    private final String subsystem;
+    private volatile LogLevel level;
+
+
+
+
+    private Log(String subsystem)
+    {
+        this.subsystem = subsystem;
+        this.level = resolve(subsystem);
+    }
+
+
+
+
+    public static Log get(String subsystem)
+    {
+        return LOGS.computeIfAbsent(subsystem, Log::new);
+    }
+
+
+
+
+    public static void setLevel(String subsystem, LogLevel l)
+    {
+        if (l == null)
+        {
+            OVERRIDES.remove(subsystem);
+        }
+        else
+        {
+            OVERRIDES.put(subsystem, l);
+        }
+
+        for (Log log : LOGS.values())
+        {
+            log.level = resolve(log.subsystem);
+        }
+    }
+
+
+
+
+    private static LogLevel resolve(String subsystem)
+    {
+        String name = subsystem;
+
+        while (true)
+        {
+            LogLevel l = OVERRIDES.get(name);
+
+            if (l == null)
+            {
+                l = LogLevel.parse(System.getProperty(PROPERTY + "." + name), null);
+            }
+
+            if (l != null)
+            {
+                return l;
+            }
+
+            int dot = name.lastIndexOf('.');
+
+            if (dot < 0)
+            {
+                break;
+            }
+
+            name = name.substring(0, dot);
+        }
+
+        LogLevel root = OVERRIDES.get("");
+
+        return root != null ? root : LogLevel.parse(System.getProperty(PROPERTY), LogLevel.INFO);
+    }
+
+
+
+
+    public String getSubsystem()
+    {
+        return subsystem;
+    }
+
+
+
+
+    public LogLevel getLevel()
+    {
+        return level;
+    }
+
+
+
+
+    public boolean isEnabled(LogLevel l)
+    {
+        return l != LogLevel.OFF && l.compareTo(level) >= 0;
+    }
+
+
+
+
+    private void log(LogLevel l, String msg, int n, Object a, Object b, Object c)
+    {
+        log(l, msg, n, a, b, c, null);
+    }
+
+
+
+
+    private void log(LogLevel l, String msg, int n, Object a, Object b, Object c, Throwable thrown)
+    {
+        if (isEnabled(l))
+        {
+            AsyncAppender.get().append(l, subsystem, msg, n, a, b, c, thrown);
+        }
+    }
+
+
+
+
+    public void trace(String msg)
+    {
+        log(LogLevel.TRACE, msg, 0, null, null, null);
+    }
+
+    public void trace(String msg, Object a)
+    {
+        log(LogLevel.TRACE, msg, 1, a, null, null);
+    }
+
+    public void trace(String msg, Object a, Object b)
+    {
+        log(LogLevel.TRACE, msg, 2, a, b, null);
+    }
+
+    public void trace(String msg, Object a, Object b, Object c)
+    {
+        log(LogLevel.TRACE, msg, 3, a, b, c);
+    }
+
+
+
+
+    public void debug(String msg)
+    {
+        log(LogLevel.DEBUG, msg, 0, null, null, null);
+    }
+
+    public void debug(String msg, Object a)
+    {
+        log(LogLevel.DEBUG, msg, 1, a, null, null);
+    }
+
+    public void debug(String msg, Object a, Object b)
+    {
+        log(LogLevel.DEBUG, msg, 2, a, b, null);
+    }
+
+    public void debug(String msg, Object a, Object b, Object c)
+    {
+        log(LogLevel.DEBUG, msg, 3, a, b, c);
+    }
+
+
+
+
+    public void info(String msg)
+    {
+        log(LogLevel.INFO, msg, 0, null, null, null);
+    }
+
+    public void info(String msg, Object a)
+    {
+        log(LogLevel.INFO, msg, 1, a, null, null);
+    }
+
+    public void info(String msg, Object a, Object b)
+    {
+        log(LogLevel.INFO, msg, 2, a, b, null);
+    }
+
+    public void info(String msg, Object a, Object b, Object c)
+    {
+        log(LogLevel.INFO, msg, 3, a, b, c);
+    }
+
+
+
+
+    public void warn(String msg)
+    {
+        log(LogLevel.WARN, msg, 0, null, null, null);
+    }
+
+    public void warn(String msg, Object a)
+    {
+        log(LogLevel.WARN, msg, 1, a, null, null);
+    }
+
+    public void warn(String msg, Object a, Object b)
+    {
+        log(LogLevel.WARN, msg, 2, a, b, null);
+    }
+
+    public void warn(String msg, Object a, Object b, Object c)
+    {
+        log(LogLevel.WARN, msg, 3, a, b, c);
+    }
+
+    public void warn(String msg, Throwable t)
+    {
+        log(LogLevel.WARN, msg, 1, t, null, null, t);
+    }
+
+    public void warn(String msg, Object a, Throwable t)
+    {
+        log(LogLevel.WARN, msg, 2, a, t, null, t);
+    }
+
+    public void warn(String msg, Object a, Object b, Throwable t)
+    {
+        log(LogLevel.WARN, msg, 3, a, b, t, t);
+    }
+
+
+
+
+    public void error(String msg)
+    {
+        log(LogLevel.ERROR, msg, 0, null, null, null);
+    }
+
+    public void error(String msg, Object a)
+    {
+        log(LogLevel.ERROR, msg, 1, a, null, null);
+    }
+
+    public void error(String msg, Object a, Object b)
+    {
+        log(LogLevel.ERROR, msg, 2, a, b, null);
+    }
+
+    public void error(String msg, Object a, Object b, Object c)
+    {
+        log(LogLevel.ERROR, msg, 3, a, b, c);
+    }
+
+    public void error(String msg, Throwable t)
+    {
+        log(LogLevel.ERROR, msg, 1, t, null, null, t);
+    }
+
+    public void error(String msg, Object a, Throwable t)
+    {
+        log(LogLevel.ERROR, msg, 2, a, t, null, t);
+    }
+
+    public void error(String msg, Object a, Object b, Throwable t)
+    {
+        log(LogLevel.ERROR, msg, 3, a, b, t, t);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.log;
+
+
+
+
+public enum LogLevel
+{
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF;
+
+
+
+
+    public static LogLevel parse(String s, LogLevel fallback)
+    {
+        if (s == null)
+        {
+            return fallback;
+        }
+
+        try
+        {
+            return valueOf(s.trim().toUpperCase(java.util.Locale.ROOT));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return fallback;
+        }
+    }
+}
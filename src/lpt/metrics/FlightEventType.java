@@ -0,0 +1,271 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import lpt.log.Log;
+
+
+
+
+/*
+ * A Java Flight Recorder event type defined at runtime through jdk.jfr.EventFactory.  The build targets Java 8,
+ * where jdk.jfr is not part of the compile-time API, so everything goes through reflection and the type quietly
+ * does nothing on a JVM without JFR or with -Dlpt.jfr=false.  Events never record stack traces.
+ */
+public final class FlightEventType
+{
+    private static final Log LOG = Log.get("metrics.jfr");
+
+    public static final boolean ENABLED = !"false".equals(System.getProperty("lpt.jfr"));
+
+    public static final String TIMESPAN = "jdk.jfr.Timespan";
+    public static final String DATA_AMOUNT = "jdk.jfr.DataAmount";
+
+    private static final String CATEGORY = "Libert Pentax Tether";
+
+    private static Method create;
+    private static Method newEvent;
+    private static Method isEnabled;
+    private static Method begin;
+    private static Method set;
+    private static Method commit;
+    private static Constructor<?> annotation;
+    private static Constructor<?> value;
+
+    static
+    {
+        if (ENABLED)
+        {
+            try
+            {
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+
+                create = factory.getMethod("create", List.class, List.class);
+                newEvent = factory.getMethod("newEvent");
+                isEnabled = event.getMethod("isEnabled");
+                begin = event.getMethod("begin");
+                set = event.getMethod("set", int.class, Object.class);
+                commit = event.getMethod("commit");
+                annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+                value = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+            }
+            catch (ReflectiveOperationException | LinkageError ex)
+            {
+                create = null;
+            }
+        }
+    }
+
+    private final String name;
+    private final Object factory;
+
+
+
+
+    public FlightEventType(String name, String label, String subsystem, String description, Field... fields)
+    {
+        this.name = name;
+        this.factory = define(name, label, subsystem, description, fields);
+    }
+
+
+
+
+    private static Object define(String name, String label, String subsystem, String description, Field... fields)
+    {
+        if (create == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotation("jdk.jfr.Name", name));
+            annotations.add(annotation("jdk.jfr.Label", label));
+            annotations.add(annotation("jdk.jfr.Description", description));
+            annotations.add(annotation("jdk.jfr.Category", new String[] {CATEGORY, subsystem}));
+            annotations.add(annotation("jdk.jfr.StackTrace", false));
+
+            List<Object> values = new ArrayList<>();
+
+            for (Field f : fields)
+            {
+                List<Object> a = new ArrayList<>();
+                a.add(annotation("jdk.jfr.Label", f.label));
+
+                if (TIMESPAN.equals(f.content))
+                {
+                    a.add(annotation(TIMESPAN, "NANOSECONDS"));
+                }
+                else if (DATA_AMOUNT.equals(f.content))
+                {
+                    a.add(annotation(DATA_AMOUNT, "BYTES"));
+                }
+
+                values.add(value.newInstance(f.type, f.name, a));
+            }
+
+            return create.invoke(null, annotations, values);
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            LOG.warn("Could not define flight recorder event {}: {}", name, ex);
+
+            return null;
+        }
+    }
+
+
+
+
+    @SuppressWarnings("unchecked")
+    private static Object annotation(String type, Object v) throws ReflectiveOperationException
+    {
+        return annotation.newInstance((Class<? extends Annotation>) Class.forName(type), v);
+    }
+
+
+
+
+    public static Field field(String name, Class<?> type, String label)
+    {
+        return new Field(name, type, label, null);
+    }
+
+
+
+
+    public static Field field(String name, Class<?> type, String label, String content)
+    {
+        return new Field(name, type, label, content);
+    }
+
+
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+
+
+    // Starts timing now; the values are filled in by FlightEvent.commit.
+    public FlightEvent begin()
+    {
+        if (factory == null)
+        {
+            return FlightEvent.NONE;
+        }
+
+        try
+        {
+            Object e = newEvent.invoke(factory);
+
+            if (!(Boolean) isEnabled.invoke(e))
+            {
+                return FlightEvent.NONE;
+            }
+
+            begin.invoke(e);
+
+            return new FlightEvent(e);
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            return FlightEvent.NONE;
+        }
+    }
+
+
+
+
+    // An event without duration, committed straight away.
+    public void commit(Object... values)
+    {
+        if (factory != null)
+        {
+            try
+            {
+                Object e = newEvent.invoke(factory);
+
+                if ((Boolean) isEnabled.invoke(e))
+                {
+                    new FlightEvent(e).commit(values);
+                }
+            }
+            catch (ReflectiveOperationException ex)
+            {
+
+            }
+        }
+    }
+
+
+
+
+    public static final class Field
+    {
+        private final String name;
+        private final Class<?> type;
+        private final String label;
+        private final String content;
+
+        private Field(String name, Class<?> type, String label, String content)
+        {
+            this.name = name;
+            this.type = type;
+            this.label = label;
+            this.content = content;
+        }
+    }
+
+
+
+
+    public static final class FlightEvent
+    {
+        static final FlightEvent NONE = new FlightEvent(null);
+
+        private final Object event;
+
+        private FlightEvent(Object event)
+        {
+            this.event = event;
+        }
+
+        public void commit(Object... values)
+        {
+            if (event == null)
+            {
+                return;
+            }
+
+            try
+            {
+                for (int i = 0; i < values.length; i++)
+                {
+                    set.invoke(event, i, values[i]);
+                }
+
+                commit.invoke(event);
+            }
+            catch (ReflectiveOperationException | RuntimeException ex)
+            {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+import static lpt.metrics.FlightEventType.DATA_AMOUNT;
+import static lpt.metrics.FlightEventType.TIMESPAN;
+import static lpt.metrics.FlightEventType.field;
+
+
+
+
+/*
+ * Flight recorder event types.  Values passed to commit follow the field order given here.
+ */
+public final class FlightEvents
+{
+    public static final FlightEventType COMMAND = new FlightEventType(
+        "lpt.USBCommand", "USB Command", "USB",
+        "Driver command from submission to reply",
+        field("opcode", String.class, "Opcode"),
+        field("queueWait", long.class, "Queue Wait", TIMESPAN),
+        field("wireTime", long.class, "Wire Time", TIMESPAN),
+        field("outcome", String.class, "Outcome"));
+
+    public static final FlightEventType CAMERA_EVENT = new FlightEventType(
+        "lpt.CameraEvent", "Camera Event", "USB",
+        "Camera event read from the event socket and handed to the listeners",
+        field("event", String.class, "Event"),
+        field("listeners", int.class, "Listeners"));
+
+    public static final FlightEventType DOWNLOAD = new FlightEventType(
+        "lpt.ImageDownload", "Image Download", "Download",
+        "ImageDownloader job from start to file closed",
+        field("image", String.class, "Image"),
+        field("thumbnail", boolean.class, "Thumbnail"),
+        field("bytes", long.class, "Bytes", DATA_AMOUNT),
+        field("outcome", String.class, "Outcome"));
+
+    public static final FlightEventType LIVE_VIEW_FRAME = new FlightEventType(
+        "lpt.LiveViewFrame", "Live View Frame", "Live View",
+        "Live view frame read from the driver socket",
+        field("size", int.class, "Size", DATA_AMOUNT),
+        field("gap", long.class, "Gap Since Previous Frame", TIMESPAN),
+        field("complete", boolean.class, "Complete JPEG"));
+
+
+
+
+    private FlightEvents()
+    {
+    }
+}
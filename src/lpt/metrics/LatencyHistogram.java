@@ -0,0 +1,171 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+
+
+/*
+ * Log-linear histogram in the style of HdrHistogram: every power of two is split into 64 equal buckets, so any
+ * recorded value is reported within about 1.5% of its true value.  Recording is a single atomic increment.
+ * Values are nanoseconds; anything beyond MAX_TRACKABLE lands in the top bucket, but max stays exact.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 36;
+
+    public static final long MAX_TRACKABLE = ((long) SUB_BUCKETS << MAX_SHIFT) - 1;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong total;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+
+
+
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(index(MAX_TRACKABLE) + 1);
+        this.total = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+
+
+
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+
+        counts.incrementAndGet(index(Math.min(value, MAX_TRACKABLE)));
+        total.incrementAndGet();
+        sum.addAndGet(value);
+
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value))
+        {
+
+        }
+    }
+
+
+
+
+    public long getCount()
+    {
+        return total.get();
+    }
+
+
+
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+
+
+
+    public double getMean()
+    {
+        long n = total.get();
+
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+
+
+
+    // Highest value equivalent to the bucket holding the requested rank, capped by the recorded maximum.
+    public long getValueAtPercentile(double percentile)
+    {
+        long n = 0;
+
+        for (int i = 0; i < counts.length(); i++)
+        {
+            n += counts.get(i);
+        }
+
+        if (n == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length(); i++)
+        {
+            seen += counts.get(i);
+
+            if (seen >= rank)
+            {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+
+
+
+    public void reset()
+    {
+        for (int i = 0; i < counts.length(); i++)
+        {
+            counts.set(i, 0);
+        }
+
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+
+
+
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+
+        return SUB_BUCKETS + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+
+
+
+    static long highestEquivalent(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import lpt.log.Log;
+
+
+
+
+/*
+ * Process-wide registry.  Every operation is published as an MBean named lpt:type=<group>,name=<name>, and with
+ * -Dlpt.metrics.port set the same numbers are served as plain text (Prometheus exposition format) on /metrics.
+ */
+public final class Metrics
+{
+    private static final Log LOG = Log.get("metrics");
+
+    public static final String DOMAIN = "lpt";
+    public static final int PORT = Integer.getInteger("lpt.metrics.port", 0);
+    public static final String HOST = System.getProperty("lpt.metrics.host", "127.0.0.1");
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, OperationMetrics> OPERATIONS = new ConcurrentSkipListMap<>();
+    private static HttpServer endpoint;
+
+    static
+    {
+        if (PORT > 0)
+        {
+            startEndpoint(HOST, PORT);
+        }
+    }
+
+
+
+
+    private Metrics()
+    {
+    }
+
+
+
+
+    public static OperationMetrics operation(String group, String name)
+    {
+        String key = group + "/" + name;
+        OperationMetrics m = OPERATIONS.get(key);
+
+        if (m == null)
+        {
+            // The skip list may run a mapping function more than once, and an MBean can only be registered once.
+            synchronized (OPERATIONS)
+            {
+                m = OPERATIONS.get(key);
+
+                if (m == null)
+                {
+                    m = new OperationMetrics(group, name);
+                    register(m);
+                    OPERATIONS.put(key, m);
+                }
+            }
+        }
+
+        return m;
+    }
+
+
+
+
+    private static void register(OperationMetrics m)
+    {
+        Hashtable<String, String> keys = new Hashtable<>();
+        keys.put("type", m.getGroup());
+        keys.put("name", m.getName());
+
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(DOMAIN, keys);
+
+            if (!server.isRegistered(on))
+            {
+                server.registerMBean(m, on);
+            }
+        }
+        catch (JMException ex)
+        {
+            LOG.warn("Could not register metrics for {} {}: {}", m.getGroup(), m.getName(), ex);
+        }
+    }
+
+
+
+
+    public static String render()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# TYPE lpt_operations_total counter\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            line(sb, "lpt_operations_total", m, null, m.getCount());
+        }
+
+        sb.append("# TYPE lpt_operation_errors_total counter\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            line(sb, "lpt_operation_errors_total", m, null, m.getErrors());
+        }
+
+        sb.append("# TYPE lpt_operation_timeouts_total counter\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            line(sb, "lpt_operation_timeouts_total", m, null, m.getTimeouts());
+        }
+
+        sb.append("# TYPE lpt_operation_bytes_total counter\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            line(sb, "lpt_operation_bytes_total", m, null, m.getBytes());
+        }
+
+        sb.append("# TYPE lpt_operation_seconds summary\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            LatencyHistogram h = m.getLatency();
+
+            for (double q : QUANTILES)
+            {
+                line(sb, "lpt_operation_seconds", m, Double.toString(q), h.getValueAtPercentile(q * 100) / 1e9);
+            }
+
+            line(sb, "lpt_operation_seconds_count", m, null, h.getCount());
+            line(sb, "lpt_operation_seconds_sum", m, null, h.getMean() * h.getCount() / 1e9);
+        }
+
+        sb.append("# TYPE lpt_operation_seconds_max gauge\n");
+        for (OperationMetrics m : OPERATIONS.values())
+        {
+            line(sb, "lpt_operation_seconds_max", m, null, m.getLatency().getMax() / 1e9);
+        }
+
+        return sb.toString();
+    }
+
+
+
+
+    private static void line(StringBuilder sb, String metric, OperationMetrics m, String quantile, double value)
+    {
+        sb.append(metric)
+            .append("{group=\"").append(m.getGroup())
+            .append("\",name=\"").append(m.getName()).append('"');
+
+        if (quantile != null)
+        {
+            sb.append(",quantile=\"").append(quantile).append('"');
+        }
+
+        sb.append("} ");
+
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            sb.append((long) value);
+        }
+        else
+        {
+            sb.append(String.format(Locale.ROOT, "%.9f", value));
+        }
+
+        sb.append('\n');
+    }
+
+
+
+
+    public static synchronized void startEndpoint(String host, int port)
+    {
+        if (endpoint != null)
+        {
+            return;
+        }
+
+        try
+        {
+            HttpServer s = HttpServer.create(new InetSocketAddress(host, port), 0);
+
+            s.createContext("/metrics", (exchange) ->
+            {
+                byte[] body = render().getBytes(StandardCharsets.UTF_8);
+
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+
+                try (OutputStream os = exchange.getResponseBody())
+                {
+                    os.write(body);
+                }
+            });
+
+            s.setExecutor(Executors.newSingleThreadExecutor((Runnable r) ->
+            {
+                Thread t = new Thread(r, "Metrics endpoint");
+                t.setDaemon(true);
+                return t;
+            }));
+
+            s.start();
+            endpoint = s;
+        }
+        catch (IOException ex)
+        {
+            LOG.error("Could not start metrics endpoint on {}:{}: {}", host, port, ex);
+        }
+    }
+
+
+
+
+    public static synchronized void stopEndpoint()
+    {
+        if (endpoint != null)
+        {
+            endpoint.stop(0);
+            endpoint = null;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+
+public final class OperationMetrics implements OperationMetricsMBean
+{
+    public static enum Outcome {OK, ERROR, TIMEOUT};
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final String group;
+    private final String name;
+    private final LatencyHistogram latency;
+    private final AtomicLong errors;
+    private final AtomicLong timeouts;
+    private final AtomicLong bytes;
+
+
+
+
+    OperationMetrics(String group, String name)
+    {
+        this.group = group;
+        this.name = name;
+        this.latency = new LatencyHistogram();
+        this.errors = new AtomicLong();
+        this.timeouts = new AtomicLong();
+        this.bytes = new AtomicLong();
+    }
+
+
+
+
+    public void record(long nanos, Outcome outcome)
+    {
+        latency.record(nanos);
+
+        if (outcome == Outcome.ERROR)
+        {
+            errors.incrementAndGet();
+        }
+        else if (outcome == Outcome.TIMEOUT)
+        {
+            timeouts.incrementAndGet();
+        }
+    }
+
+
+
+
+    public void addBytes(long n)
+    {
+        bytes.addAndGet(n);
+    }
+
+
+
+
+    public String getGroup()
+    {
+        return group;
+    }
+
+
+
+
+    public String getName()
+    {
+        return name;
+    }
+
+
+
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+
+
+
+    @Override
+    public long getCount()
+    {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    @Override
+    public double getMeanMillis()
+    {
+        return latency.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis()
+    {
+        return latency.getValueAtPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis()
+    {
+        return latency.getValueAtPercentile(90) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis()
+    {
+        return latency.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis()
+    {
+        return latency.getValueAtPercentile(99.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis()
+    {
+        return latency.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset()
+    {
+        latency.reset();
+        errors.set(0);
+        timeouts.set(0);
+        bytes.set(0);
+    }
+}
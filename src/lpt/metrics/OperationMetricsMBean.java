@@ -0,0 +1,35 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.metrics;
+
+
+
+
+public interface OperationMetricsMBean
+{
+    public long getCount();
+
+    public long getErrors();
+
+    public long getTimeouts();
+
+    public long getBytes();
+
+    public double getMeanMillis();
+
+    public double getP50Millis();
+
+    public double getP90Millis();
+
+    public double getP99Millis();
+
+    public double getP999Millis();
+
+    public double getMaxMillis();
+
+    public void reset();
+}
@@ -0,0 +1,78 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.CameraStatus;
+import com.ricoh.camera.sdk.wireless.api.response.StartCaptureResponse;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+
+
+final class USBAsyncAdapter implements USBAsyncInterface
+{
+    private final USBInterface iface;
+
+
+
+
+    USBAsyncAdapter(USBInterface iface)
+    {
+        this.iface = iface;
+    }
+
+
+
+
+    public static USBAsyncInterface of(USBInterface iface)
+    {
+        if (iface instanceof USBAsyncInterface)
+        {
+            return (USBAsyncInterface) iface;
+        }
+
+        return new USBAsyncAdapter(iface);
+    }
+
+    @Override
+    public CompletableFuture<StartCaptureResponse> captureAsync(boolean focus)
+    {
+        return CompletableFuture.supplyAsync(() -> iface.capture(focus));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> getSettingsAsync(List<CaptureSetting> s)
+    {
+        return CompletableFuture.supplyAsync(() -> iface.getSettings(s));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setSettingsAsync(List<CaptureSetting> s)
+    {
+        return CompletableFuture.supplyAsync(() -> iface.setSettings(s));
+    }
+
+    @Override
+    public CompletableFuture<CameraStatus> getStatusAsync()
+    {
+        return CompletableFuture.supplyAsync(iface::getStatus);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> focusAsync()
+    {
+        return CompletableFuture.supplyAsync(iface::focus);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> focusAsync(int adjustment)
+    {
+        return CompletableFuture.supplyAsync(() -> iface.focus(adjustment));
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.CameraStatus;
+import com.ricoh.camera.sdk.wireless.api.response.StartCaptureResponse;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+
+
+
+interface USBAsyncInterface
+{
+
+
+
+    public CompletableFuture<StartCaptureResponse> captureAsync(boolean focus);
+
+
+
+
+    public CompletableFuture<Boolean> getSettingsAsync(List<CaptureSetting> s);
+
+
+
+
+    public CompletableFuture<Boolean> setSettingsAsync(List<CaptureSetting> s);
+
+
+
+
+    public CompletableFuture<CameraStatus> getStatusAsync();
+
+
+
+
+    public CompletableFuture<Boolean> focusAsync();
+
+
+
+
+    public CompletableFuture<Boolean> focusAsync(int adjustment);
+
+
+}
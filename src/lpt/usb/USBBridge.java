@@ -28,45 +28,51 @@ import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Date; 
-import java.util.Map;
-import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import lpt.event.EventDispatcher;
+import lpt.log.Log;
+import lpt.metrics.FlightEventType.FlightEvent;
+import lpt.metrics.FlightEvents;
+import lpt.metrics.OperationMetrics;
 
 
 
 
-public final class USBBridge implements USBInterface
+public final class USBBridge implements USBInterface, USBAsyncInterface
 {
-    private Process conn;
-    private PrintWriter p;
-    private InputStream in;
-    private boolean connected;
-    private CameraStatus lastStatus;
+    private static final Log LOG = Log.get("usb");
+    private static final Log PROTOCOL = Log.get("usb.protocol");
+    private static final Log EVENTS = Log.get("usb.events");
     
-    private ServerSocket sock;
-    private ExecutorService exec;
+    private volatile USBDriverProcess driver;
+    private volatile USBDriverProcess standby;
+    private boolean connected;
+    private volatile boolean cameraConnected;
+    private volatile CameraStatus lastStatus;
     
-    private final PriorityQueue<String> q;
+    private USBSocketLoop.Stream eventStream;
+    private volatile int pipelineDepth;
+    private final USBReadCache reads;
+    private final USBDeadlines deadlines;
+    private final USBDriverLauncher launcher;
     
     private CameraDevice c;
     
@@ -118,10 +124,37 @@ public final class USBBridge implements USBInterface
 
     public static final String EXIT = "99";
         
-    private static final int WAIT_INTERVAL = 10;
-    
     private static final int INTERFACE_TIMEOUT = 60000;
     
+    public static final int PIPELINE_DEPTH = Integer.getInteger("lpt.usb.pipelineDepth", 1);
+    
+    public static final int READ_FRESHNESS = Integer.getInteger("lpt.usb.readFreshness", 250);
+    
+    public static final int RESTART_ATTEMPTS = 3;
+    
+    public static final int RESTART_BACKOFF = 1000;
+    
+    public static final boolean WARM_STANDBY = Boolean.getBoolean("lpt.usb.warmStandby");
+    
+    private static final int STANDBY_PROBE_TIMEOUT = 5000;
+    
+    public static final int DRIVER_LOG_SIZE = Integer.getInteger("lpt.usb.driverLogSize", 65536);
+    
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor((Runnable r) ->
+    {
+        Thread t = new Thread(r, "USB Bridge timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    // Replies are handed off here so that no caller's dependent stage runs on the reader or timeout thread.
+    private static final ExecutorService COMPLETIONS = Executors.newCachedThreadPool((Runnable r) ->
+    {
+        Thread t = new Thread(r, "USB Bridge completions");
+        t.setDaemon(true);
+        return t;
+    });
+    
     
     public static final String START_LV = "4000";
     public static final String STOP_LV = "4001";
@@ -130,36 +163,23 @@ public final class USBBridge implements USBInterface
     public USBBridge()
     {
         connected = false;
-                
-        q = new PriorityQueue<>((String s1, String s2) -> 
+        pipelineDepth = PIPELINE_DEPTH;
+        reads = new USBReadCache(READ_FRESHNESS);
+        deadlines = new USBDeadlines(INTERFACE_TIMEOUT);
+        launcher = USBDriverLauncher.getDefault();
+        
+        if (WARM_STANDBY)
         {
-            if (s1.equals(s2))
-            {
-                return 0;
-            }
-            
-
-            if (!s1.equals(GET_NEXT_EVENT) && !s2.equals(GET_STATUS))
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
             {
-                return 0;
-            }
-            
-
-            if (s1.equals(GET_NEXT_EVENT) && s2.equals(GET_STATUS))
-            {
-                return 1;
-            }
-            
-    
-            if (s1.equals(GET_NEXT_EVENT) || s1.equals(GET_STATUS))
-            {
-                return -1;
-            }
-            
-   
-            return 1;
-        });
-    
+                USBDriverProcess d = standby;
+                
+                if (d != null)
+                {
+                    d.destroy();
+                }
+            }, "USB Bridge standby cleanup"));
+        }
     }
     
     
@@ -168,7 +188,7 @@ public final class USBBridge implements USBInterface
     {
         if (!IS_WIN && !IS_64_BIT)
         {
-            System.err.println("This OS does not support USB mode yet. Supported platforms: 64-bit Windows, 64-bit Mac and Linux");
+            LOG.error("This OS does not support USB mode yet. Supported platforms: 64-bit Windows, 64-bit Mac and Linux");
             return false;
         }
         
@@ -176,36 +196,19 @@ public final class USBBridge implements USBInterface
         {
             try
             {
-                String cwd = new File(USBBridge.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
+                USBDriverProcess d = takeStandby();
 
-                if (IS_WIN)
+                if (d == null)
                 {
-                	conn = new ProcessBuilder(cwd + "/lib/usb_interface_win64.exe").start();                    
+                    d = USBDriverProcess.spawn(launcher, pipelineDepth);
                 }
-                else
-                {
-                    ProcessBuilder pb;
 
-                    if (IS_MAC)
-                    {
-                        pb = new ProcessBuilder(cwd + "/lib/usb_interface_macos64");
-                    }
-                    else
-                    {
-                        pb = new ProcessBuilder(cwd + "/lib/usb_interface_linux64");
-                    }
-
-                    Map<String, String> env = pb.environment();
-                    env.put("LD_LIBRARY_PATH", cwd + "/lib/");
-                    conn = pb.start();
-                }
+                reads.invalidate();
+                driver = d;
 
-                p = new PrintWriter(conn.getOutputStream());
-                in = conn.getInputStream();
-
-                if (!conn.isAlive())
+                if (!d.isAlive())
                 {
-                    System.err.println("Error: USB driver failed to start.");
+                    LOG.error("USB driver failed to start.");
                 }
                 else
                 {
@@ -215,134 +218,472 @@ public final class USBBridge implements USBInterface
                     if (!nm.isMalformed())
                     {
                         connected = true;
+                        supervise(d);
+                        prepareStandby();
                     }
                     else
                     {
-                        System.err.println("Fatal Error: USB driver is not responding.  Your system may not have the correct runtime libraries installed.");
+                        LOG.error("USB driver is not responding.  Your system may not have the correct runtime libraries installed.");
+                        d.getDispatcher().shutdown();
                     }
                 }
             }
             catch (URISyntaxException | IOException ex)
             {            
-                System.err.println(ex.toString());
+                LOG.error("USB driver could not be started: {}", ex);
             }
         }
         
         return connected;
     }
     
-    @Override
-    synchronized public void disconnect()
+    private void supervise(USBDriverProcess d)
     {
-        if (connected)
+        Thread t = new Thread(() ->
+        {
+            try
+            {
+                d.getProcess().waitFor();
+            }
+            catch (InterruptedException ex)
+            {
+                return;
+            }
+            
+            driverExited(d);
+        }, "USB Bridge supervisor");
+        
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    
+    
+    
+    private void driverExited(USBDriverProcess d)
+    {
+        // The last commands before a crash are the ones the trace is kept for.
+        USBTraceRecorder.get().flush();
+        
+        boolean recovered;
+        CameraDevice cam;
+        
+        // Held through the restart, so a disconnect() or connectCamera() from the UI waits for the new driver
+        // instead of racing it.
+        synchronized (this)
         {
+            // disconnect() clears connected before stopping the driver on purpose.
+            if (d != driver || !connected)
+            {
+                return;
+            }
+            
+            LOG.warn("USB driver exited with code {}.  Restarting.", d.getProcess().exitValue());
+            
             connected = false;
-            sendCommand(DISCONNECT);
-            sendCommand(EXIT);
-            conn.destroyForcibly();
+            lastStatus = null;
+            d.getDispatcher().shutdown();
+            
+            recovered = restartDriver();
+            cam = this.c;
+        }
+        
+        if (cam == null)
+        {
+            return;
+        }
+        
+        for (CameraEventListener cel : cam.getEventListeners())
+        {
+            if (!recovered)
+            {
+                EventDispatcher.get().post(cel, "deviceDisconnected", () -> {cel.deviceDisconnected(cam);});
+            }
+            else if (cel instanceof USBEventListener)
+            {
+                EventDispatcher.get().post(cel, "deviceReconnected", () -> {((USBEventListener) cel).deviceReconnected(cam);});
+            }
         }
     }
     
-    @Override
-    synchronized public boolean isConnected()
+    
+    
+    
+    private boolean restartDriver()
     {
-        return connected;
+        for (int attempt = 1; attempt <= RESTART_ATTEMPTS; attempt++)
+        {
+            if (connect())
+            {
+                if (!cameraConnected || this.c == null)
+                {
+                    return true;
+                }
+                
+                if (connectCamera(0) && processCallBacks(this.c, null))
+                {
+                    LOG.info("USB driver restarted, camera reconnected.");
+                    return true;
+                }
+            }
+            
+            try
+            {
+                Thread.sleep(RESTART_BACKOFF * attempt);
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+        }
+        
+        cameraConnected = false;
+        LOG.error("USB driver could not be restarted.");
+        
+        return false;
     }
     
-
-
     
-    public USBMessage sendCommand(String c)
+    
+    
+    private synchronized USBDriverProcess takeStandby()
     {
-        if (!conn.isAlive())
+        USBDriverProcess d = standby;
+        standby = null;
+        
+        if (d != null && !d.isAlive())
         {
-            System.err.println("    USB driver has crashed.  Exiting.");
-            System.exit(0);
+            d.destroy();
+            return null;
         }
         
-        this.q.add(c);
+        if (d != null)
+        {
+            d.getDispatcher().setPipelineDepth(pipelineDepth);
+        }
         
-        int waited = 0;
+        return d;
+    }
+    
+    
+    
+    
+    private void prepareStandby()
+    {
+        if (!WARM_STANDBY || standby != null)
+        {
+            return;
+        }
         
-        while(!this.q.peek().equals(c))
+        Thread t = new Thread(() ->
         {
             try
             {
-                if (waited >= INTERFACE_TIMEOUT)
+                USBDriverProcess d = USBDriverProcess.spawn(launcher, pipelineDepth);
+                
+                // A spare that cannot answer a probe would only turn a fast restart into a slow one.
+                if (!d.probe(STANDBY_PROBE_TIMEOUT))
                 {
-                    USBMessage nm = new USBMessage("TimeoutError", c);
-                    System.out.println(nm.toString());
-                    this.q.remove(c);
-                    
-                    return nm;
+                    d.destroy();
+                    return;
                 }
                 
-                Thread.sleep(WAIT_INTERVAL);
-                waited += WAIT_INTERVAL;
+                synchronized (this)
+                {
+                    if (standby == null)
+                    {
+                        standby = d;
+                        return;
+                    }
+                }
+                
+                d.destroy();
             }
-            catch (InterruptedException ex)
+            catch (URISyntaxException | IOException ex)
             {
-                System.err.println("    USB Operation " + c.replace("\n", " ") + " interrupted.");
+                LOG.warn("USB standby driver could not be started: {}", ex);
             }
+        }, "USB Bridge standby");
+        
+        t.setDaemon(true);
+        t.start();
+    }
+    
+    @Override
+    synchronized public void disconnect()
+    {
+        if (connected)
+        {
+            connected = false;
+            sendCommand(DISCONNECT);
+            sendCommand(EXIT);
+            driver.destroy();
         }
-                
-        if (!"".equals(c))
+    }
+    
+    @Override
+    synchronized public boolean isConnected()
+    {
+        return connected;
+    }
+    
+    
+    
+    
+    public void setPipelineDepth(int depth)
+    {
+        pipelineDepth = Math.max(1, depth);
+        
+        USBDriverProcess d = driver;
+        
+        if (d != null)
         {
-            p.write(c);
-            p.write("\n");
-            p.flush();
+            d.getDispatcher().setPipelineDepth(pipelineDepth);
         }
-
- 
+    }
+    
+    public int getPipelineDepth()
+    {
+        return pipelineDepth;
+    }
+    
+    
+    
+    
+    public String getDriverLog()
+    {
+        USBDriverProcess d = driver;
         
+        return d == null ? "" : d.getLog().snapshot();
+    }
+    
 
-        USBMessage nm = new USBMessage("TimeoutError", c);
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<USBMessage> future = executor.submit(() -> new USBMessage(readUntilChar(in, USBMessage.getMessageDelim())));
-              
+
+    
+    public USBMessage sendCommand(String c)
+    {
+        return sendCommand(c, null);
+    }
+    
+    
+    
+    
+    public USBMessage sendCommand(String c, USBCancellationToken token)
+    {
         try
         {
-            nm = future.get(INTERFACE_TIMEOUT, TimeUnit.MILLISECONDS);
+            return sendCommandAsync(c, token).get();
         }
-        catch (TimeoutException e)
+        catch (InterruptedException | ExecutionException ex)
         {
-            System.err.println("    USB Operation " + c.replace("\n", " ") + " timed out.");
-         
-        
-            if (c.equals(GET_STATUS))
+            LOG.warn("USB operation {} interrupted.", opcodeName(c));
+            
+            return new USBMessage("TimeoutError", c);
+        }
+    }
+    
+    
+    
+    
+    public CompletableFuture<USBMessage> sendCommandAsync(String c)
+    {
+        return sendCommandAsync(c, null);
+    }
+    
+    
+    
+    
+    public CompletableFuture<USBMessage> sendCommandAsync(String c, USBCancellationToken token)
+    {
+        if (isReadOnly(c))
+        {
+            // Shared with other readers, so a token only releases this caller.
+            CompletableFuture<USBMessage> shared = reads.read(c, (String cmd) -> submitCommand(cmd, null));
+            
+            if (token == null)
             {
-                this.disconnectCamera(0);
+                return shared;
             }
+            
+            CompletableFuture<USBMessage> mine = new CompletableFuture<>();
+            shared.whenComplete((USBMessage nm, Throwable ex) ->
+            {
+                if (ex == null)
+                {
+                    mine.complete(nm);
+                }
+                else
+                {
+                    mine.completeExceptionally(ex);
+                }
+            });
+            token.onCancel(() -> COMPLETIONS.execute(() -> mine.complete(new USBMessage("CancelledError", c))));
+            
+            return mine;
         }
-        catch (InterruptedException | ExecutionException ex)
+        
+        reads.invalidate();
+        
+        return submitCommand(c, token);
+    }
+    
+    
+    
+    
+    private static String opcodeName(String c)
+    {
+        int end = c.indexOf('\n');
+        
+        return USBCommandMetrics.nameOf(end < 0 ? c : c.substring(0, end));
+    }
+    
+    
+    
+    
+    public static boolean isReadOnly(String c)
+    {
+        return GET_STATUS.equals(c) || GET_ALL_SETTINGS.equals(c) || GET_NUM_EVENTS.equals(c);
+    }
+    
+    
+    
+    
+    public long getDeadline(String opcode)
+    {
+        return deadlines.getBudget(opcode);
+    }
+    
+    
+    
+    
+    private CompletableFuture<USBMessage> submitCommand(String c, USBCancellationToken token)
+    {
+        USBDriverProcess p = driver;
+        
+        if (p == null || !p.isAlive())
         {
-            System.err.println("    USB Operation " + c.replace("\n", " ") + " interrupted.");
+            LOG.warn("USB driver is not running.  Operation {} failed.", opcodeName(c));
+            
+            return CompletableFuture.completedFuture(new USBMessage("DisconnectedError", c));
         }
         
-        executor.shutdownNow();
-      
+        FlightEvent trace = FlightEvents.COMMAND.begin();
+        USBRequest r = p.getDispatcher().submit(c);
+        String opcode = r.getOpcode();
+        CompletableFuture<USBMessage> out = new CompletableFuture<>();
+        
+        Runnable expire = () ->
+        {
+            if (out.complete(new USBMessage("TimeoutError", c)))
+            {
+                LOG.warn("USB operation {} timed out.", opcodeName(c));
+                p.getLog().dump(LOG, "Recent USB driver output:");
+                
+                r.abandon();
                 
+                if (c.equals(GET_STATUS))
+                {
+                    (new Thread(() -> {this.disconnectCamera(0);}, "USB Bridge status timeout")).start();
+                }
+            }
+        };
         
+        // Queue time is bounded by the interface timeout; time with the driver by the opcode's own budget, counted
+        // from when every earlier pipelined command has been answered.
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(expire, INTERFACE_TIMEOUT, TimeUnit.MILLISECONDS);
+        out.whenComplete((USBMessage nm, Throwable ex) -> timeout.cancel(false));
         
-        if (!nm.getType().equals("Status"))
+        r.getStarted().thenAccept((Long at) ->
         {
-            System.out.println(nm.toString());
+            ScheduledFuture<?> deadline = TIMEOUTS.schedule(expire, deadlines.getBudget(opcode), TimeUnit.MILLISECONDS);
+            out.whenComplete((USBMessage nm, Throwable ex) -> deadline.cancel(false));
+        });
+        
+        if (token != null)
+        {
+            token.onCancel(() ->
+            {
+                if (out.complete(new USBMessage("CancelledError", c)))
+                {
+                    r.abandon();
+                }
+            });
         }
         
-        this.q.remove(c);
+        out.whenComplete((USBMessage nm, Throwable ex) ->
+        {
+            if (nm != null)
+            {
+                long now = System.nanoTime();
+                Long at = r.getWritten().getNow(null);
+                OperationMetrics.Outcome o = USBCommandMetrics.outcome(nm);
                 
-        return nm;
+                USBCommandMetrics.record(opcode, now - r.getCreated(), nm);
+                trace.commit(USBCommandMetrics.nameOf(opcode),
+                    (at == null ? now : at) - r.getCreated(),
+                    at == null ? 0L : now - at,
+                    o == null ? "CANCELLED" : o.name());
+            }
+        });
+        
+        r.getReply().whenComplete((USBMessage nm, Throwable ex) ->
+        {
+            if (ex == null)
+            {
+                Long at = r.getStarted().getNow(null);
+                
+                if (at != null && !nm.isMalformed())
+                {
+                    deadlines.record(opcode, System.nanoTime() - at);
+                }
+                
+                out.complete(nm);
+            }
+        });
+        
+        return out.thenApplyAsync((USBMessage nm) ->
+        {
+            if (!nm.getType().equals("Status"))
+            {
+                PROTOCOL.debug("{}", nm);
+            }
+            
+            return nm;
+        }, COMPLETIONS);
     }
     
     @Override
     synchronized public CameraStatus getStatus()
     {
+        return getStatusAsync().join();
+    }
+    
+    @Override
+    public CompletableFuture<CameraStatus> getStatusAsync()
+    {
+        CameraStatus last = lastStatus;
        
-        if (q.isEmpty() || lastStatus == null)
-        {      
-            USBMessage nm = this.sendCommand(GET_STATUS);
-
-            lastStatus = new CameraStatus()
+        if (isBusy() && last != null)
+        {
+            return CompletableFuture.completedFuture(last);
+        }
+        
+        return this.sendCommandAsync(GET_STATUS).thenApply((USBMessage nm) ->
+        {
+            // A failed probe carries no status fields, so it must not replace the last good one.
+            if (nm.hasError() || nm.isMalformed())
+            {
+                CameraStatus previous = lastStatus;
+                
+                if (previous != null)
+                {
+                    return previous;
+                }
+                
+                throw new CompletionException(new IOException("Camera status unavailable: " + nm));
+            }
+            
+            CameraStatus status = new CameraStatus()
             {
                 @Override
                 public int getBatteryLevel()
@@ -362,7 +703,7 @@ public final class USBBridge implements USBInterface
                             {
                                 return nm.getKey("ID");
                             }
-                                   
+                               
                             return "0";
                         }
 
@@ -393,15 +734,17 @@ public final class USBBridge implements USBInterface
                                     return CaptureMethod.MOVIE;
                                 }
                             }
-                            
+                        
                             return CaptureMethod.STILL_IMAGE;
                         }
                     };                
                 }
             };    
-        }
-        
-        return lastStatus;
+
+            lastStatus = status;
+            
+            return status;
+        });
     }
     
     @Override
@@ -420,11 +763,11 @@ public final class USBBridge implements USBInterface
                         
             if (nm.hasError())
             {
-                System.err.println(nm.getError());
+                LOG.warn("{}", nm.getError());
             }
             else if (!nm.hasKey("Detected Devices"))
             {
-                System.err.println("detectDevices: could not parse response.");
+                LOG.warn("detectDevices: could not parse response.");
             }
             else
             {
@@ -466,315 +809,343 @@ public final class USBBridge implements USBInterface
     {        
         try
         {
-            if (sock != null)
+            if (eventStream != null)
             {
-                sock.close();
+                eventStream.close();
             }
             
-            final ServerSocket serverSocket = new ServerSocket(0);
-            sock = serverSocket;
+            final USBDriverProcess owner = driver;
+            final USBFrameDecoder decoder = new USBFrameDecoder((USBMessage nm) -> onEvent(c, nm));
+            
+            USBSocketLoop.Stream stream = USBSocketLoop.get().listen(new USBSocketLoop.Reader()
+            {
+                @Override
+                public void read(ByteBuffer in)
+                {
+                    decoder.decode(in);
+                }
+                
+                @Override
+                public void closed(IOException cause)
+                {
+                    // A dead driver closes the socket too; the supervisor handles that case.
+                    if (owner == driver && owner.isAlive())
+                    {
+                        (new Thread(() -> {disconnectCamera(0);}, "USB Bridge event socket closed")).start();
+                    }
+                }
+            });
+            
+            eventStream = stream;
             this.c = c;
         
-            USBMessage resp = this.sendCommand(START_EVENTS + "\n" + serverSocket.getLocalPort());
+            USBMessage resp = this.sendCommand(START_EVENTS + "\n" + stream.getLocalPort());
         
-            System.out.println("Communicating with camera on port " + serverSocket.getLocalPort());
+            LOG.info("Communicating with camera on port {}", stream.getLocalPort());
             
             if (!resp.hasError())
             {
-                if (exec != null)
+                return true;
+            }
+            
+            stream.close();
+        }
+        catch (IOException e)
+        {
+            
+        }   
+        
+        return false;
+    }
+    
+    
+    
+    
+    // Runs on the socket loop, so listeners are only ever handed work here, never called.
+    private void onEvent(CameraDevice c, USBMessage nm)
+    {
+        USBTraceRecorder.get().event(nm.getRawData());
+        
+        String eventName = nm.getKey("Event");
+        
+        EVENTS.debug("Got camera event {}", eventName);
+
+        if ("captureSettingsChanged".equals(eventName))
+        {
+            reads.invalidate();
+        }
+
+        FlightEvent dispatch = FlightEvents.CAMERA_EVENT.begin();
+        CameraEventListener[] targets = c.getEventListeners();
+
+        for (CameraEventListener cel : targets)
+        {           
+            if (null != eventName)
+            {
+                switch (eventName)
                 {
-                    exec.shutdownNow();
-                }
-                
-                exec = Executors.newSingleThreadExecutor();
-                exec.submit(
-                
-                    new Thread(() ->
-                    {
-                        try 
-                        {   
-                            Socket socket = serverSocket.accept();
-                            InputStream inputStream = socket.getInputStream();
+                    case "deviceDisconnected":
+
+                        EventDispatcher.get().post(cel, "deviceDisconnected", () -> {
+                            cel.deviceDisconnected(c);
+                        });
+                        break;
+
+               
+                    case "captureSettingsChanged":
+
+                        if (cel instanceof USBEventListener)
+                        {
+                            EventDispatcher.get().postLatest(cel, "captureSettingsChanged", () -> {
+                                ((USBEventListener) cel).captureSettingsChanged(c);
+                            });
+                        }
+                        break;
+
+                    case "imageStored":
+                    case "imageAdded":
+
+                     
+                        
+                        final USBBridge br = this;
+                        
+                     
+                        if (nm.hasKey("ImagePath"))
+                        {
+                            String filePath = nm.getKey("ImagePath");
+
+                            File f = new File(filePath);
+                            f.deleteOnExit();
+                        }
+                        
+                        if (nm.hasKey("ThumbPath"))
+                        {
+                            String filePath = nm.getKey("ThumbPath");
+
+                            File f = new File(filePath);
+                            f.deleteOnExit();
+                        }
+                    
+                                        
+                        EventDispatcher.get().post(cel, "imageStored", () -> {
+                            cel.imageStored(c, new CameraImage() {
+                                @Override
+                                public String getName()
+                                {
+                                   return nm.getKey("Name");
+                                }
+
+                                @Override
+                                public ImageType getType()
+                                {
+                                    return "StillImage".equals(nm.getKey("Type")) ? ImageType.STILL_IMAGE : ImageType.MOVIE;
+                                }
 
-                            while (true)
-                            {      
-                                USBMessage nm = new USBMessage(readUntilChar(inputStream, USBMessage.getMessageDelim()));
-                                
-                                System.out.println("Got camera event " + nm.getType());
+                                @Override
+                                public ImageFormat getFormat()
+                                {    
+                                    String format = nm.getKey("Format");
+
+                                    if (null == format)
+                                    {
+                                        return ImageFormat.UNKNOWN;
+                                    }
+                                    else switch (format)
+                                    {
+                                        case "DNG":
+                                            return ImageFormat.DNG;
+                                        case "JPEG":
+                                            return ImageFormat.JPEG;
+                                        case "AVI":
+                                            return ImageFormat.AVI;
+                                        case "MP4":
+                                            return ImageFormat.MP4;
+                                        case "PEF":
+                                            return ImageFormat.PEF;
+                                        case "DPOF":
+                                            return ImageFormat.DPOF;
+                                        case "TIFF":
+                                            return ImageFormat.TIFF;
+                                        default:
+                                            return ImageFormat.UNKNOWN;
+                                    }                                        
+                                }
 
-                           
+                                @Override
+                                public Date getDateTime()
+                                {
+                                    Date d = new Date();
 
-                                String eventName = nm.getKey("Event");
+                                    d.setTime(Integer.parseInt(nm.getKey("Date")) * 1000);
+
+                                    return d;
+                                }
+
+                                @Override
+                                public boolean hasThumbnail()
+                                {
+                                    return "1".equals(nm.getKey("HasThumbnail"));  
+                                }
+
+                                @Override
+                                public CameraStorage getStorage() {
+                                    throw new UnsupportedOperationException("Not supported yet."); 
+                                }
 
-                                for (CameraEventListener cel : c.getEventListeners())
-                                {           
-                                    if (null != eventName)
+                                @Override
+                                public Response getData(OutputStream out) throws IOException
+                                {   
+                               
+                                    if (nm.hasKey("ImagePath"))
                                     {
-                                        switch (eventName)
+                                        String filePath = nm.getKey("ImagePath");
+                                        
+                                        File f = new File(filePath);
+                                        Files.copy(f.toPath(), out);
+                                        f.delete();
+                                        
+                                        return new Response(Result.OK);
+                                    }
+                                    else
+                                    {
+                                        USBMessage nm2 = br.sendCommand(GET_IMAGE + "\n" + nm.getKey("ID"));
+
+                                        if (!nm2.hasError() && !nm2.hasKey("ErrorCode"))
                                         {
-                                            case "deviceDisconnected":
-
-                                                (new Thread (() -> {
-                                                    cel.deviceDisconnected(c);
-                                                }, "USB Bridge deviceDisconnected")).start();
-                                                break;
-
-                                       
-                                            case "captureSettingsChanged":
-                                                break;
-
-                                            case "imageStored":
-                                            case "imageAdded":
-
-                                             
-                                                
-                                                final USBBridge br = this;
-                                                
-                                             
-                                                if (nm.hasKey("ImagePath"))
-                                                {
-                                                    String filePath = nm.getKey("ImagePath");
-
-                                                    File f = new File(filePath);
-                                                    f.deleteOnExit();
-                                                }
-                                                
-                                                if (nm.hasKey("ThumbPath"))
-                                                {
-                                                    String filePath = nm.getKey("ThumbPath");
-
-                                                    File f = new File(filePath);
-                                                    f.deleteOnExit();
-                                                }
-                                            
-                                                                
-                                                (new Thread (() -> {
-                                                    cel.imageStored(c, new CameraImage() {
-                                                        @Override
-                                                        public String getName()
-                                                        {
-                                                           return nm.getKey("Name");
-                                                        }
-
-                                                        @Override
-                                                        public ImageType getType()
-                                                        {
-                                                            return "StillImage".equals(nm.getKey("Type")) ? ImageType.STILL_IMAGE : ImageType.MOVIE;
-                                                        }
-
-                                                        @Override
-                                                        public ImageFormat getFormat()
-                                                        {    
-                                                            String format = nm.getKey("Format");
-
-                                                            if (null == format)
-                                                            {
-                                                                return ImageFormat.UNKNOWN;
-                                                            }
-                                                            else switch (format)
-                                                            {
-                                                                case "DNG":
-                                                                    return ImageFormat.DNG;
-                                                                case "JPEG":
-                                                                    return ImageFormat.JPEG;
-                                                                case "AVI":
-                                                                    return ImageFormat.AVI;
-                                                                case "MP4":
-                                                                    return ImageFormat.MP4;
-                                                                case "PEF":
-                                                                    return ImageFormat.PEF;
-                                                                case "DPOF":
-                                                                    return ImageFormat.DPOF;
-                                                                case "TIFF":
-                                                                    return ImageFormat.TIFF;
-                                                                default:
-                                                                    return ImageFormat.UNKNOWN;
-                                                            }                                        
-                                                        }
-
-                                                        @Override
-                                                        public Date getDateTime()
-                                                        {
-                                                            Date d = new Date();
-
-                                                            d.setTime(Integer.parseInt(nm.getKey("Date")) * 1000);
-
-                                                            return d;
-                                                        }
-
-                                                        @Override
-                                                        public boolean hasThumbnail()
-                                                        {
-                                                            return "1".equals(nm.getKey("HasThumbnail"));  
-                                                        }
-
-                                                        @Override
-                                                        public CameraStorage getStorage() {
-                                                            throw new UnsupportedOperationException("Not supported yet."); 
-                                                        }
-
-                                                        @Override
-                                                        public Response getData(OutputStream out) throws IOException
-                                                        {   
-                                                       
-                                                            if (nm.hasKey("ImagePath"))
-                                                            {
-                                                                String filePath = nm.getKey("ImagePath");
-                                                                
-                                                                File f = new File(filePath);
-                                                                Files.copy(f.toPath(), out);
-                                                                f.delete();
-                                                                
-                                                                return new Response(Result.OK);
-                                                            }
-                                                            else
-                                                            {
-                                                                USBMessage nm2 = br.sendCommand(GET_IMAGE + "\n" + nm.getKey("ID"));
-
-                                                                if (!nm2.hasError() && !nm2.hasKey("ErrorCode"))
-                                                                {
-                                                                    String filePath = nm2.getKey("filePath");
-
-                                                                    File f = new File(filePath);
-                                                                    Files.copy(f.toPath(), out);
-                                                                    f.delete();
-
-                                                                    return new Response(Result.OK);
-                                                                }
-                                                                else
-                                                                {
-                                                                     return new Response(
-                                                                        Result.ERROR,
-                                                                        new Error(ErrorCode.IMAGE_NOT_FOUND, "Image download error.")
-                                                                    );
-                                                                }   
-                                                            }                                     
-                                                        }
-
-                                                        @Override
-                                                        public Response getThumbnail(OutputStream out) throws IOException
-                                                        {
-                                                         
-                                                            if (nm.hasKey("ThumbPath"))
-                                                            {
-                                                                String filePath = nm.getKey("ThumbPath");
-                                                                
-                                                                File f = new File(filePath);
-                                                                Files.copy(f.toPath(), out);
-                                                                f.delete();
-                                                                
-                                                                return new Response(Result.OK);
-                                                            }
-                                                            else
-                                                            {
-                                                                USBMessage nm2 = br.sendCommand(GET_THUMBNAIL + "\n" + nm.getKey("ID"));
-
-                                                                if (!nm2.hasError())
-                                                                {
-                                                                    String filePath = nm2.getKey("filePath");
-
-                                                                    File f = new File(filePath);
-                                                                    Files.copy(f.toPath(), out);
-                                                                    f.delete();
-
-                                                                    return new Response(Result.OK);
-                                                                }
-                                                                else
-                                                                {
-                                                                     return new Response(
-                                                                        Result.ERROR,
-                                                                        new Error(ErrorCode.IMAGE_NOT_FOUND, "Thumbnail download error.")
-                                                                    );
-                                                                }    
-                                                            }                                    
-                                                        }
-                                                    });
-                                                }, "USB Bridge imageAdded")).start();
-                                                break;
-
-                                            case "captureComplete":
-
-                                                (new Thread (() -> {
-                                                    cel.captureComplete(c, new Capture() {
-                                                        @Override
-                                                        public String getId()
-                                                        {    
-                                                            return nm.getKey("ID");                                        
-                                                        }
-
-                                                        @Override
-                                                        public CaptureState getState()
-                                                        {    
-                                                            if ("Complete".equals(nm.getKey("State")))
-                                                            {
-                                                                return CaptureState.COMPLETE;
-                                                            }
-
-                                                            return CaptureState.EXECUTING;                                        
-                                                        }
-
-                                                        @Override
-                                                        public CaptureMethod getMethod()
-                                                        {    
-                                                            if ("Movie".equals(nm.getKey("Method")))
-                                                            {
-                                                                return CaptureMethod.MOVIE;
-                                                            }
-
-                                                            return CaptureMethod.STILL_IMAGE;                                        
-                                                        }
-                                                    }
-                                                    );
-                                                }, "USB Bridge captureComplete")).start();
-                                                break;
-
-                                            default:
-                                                break;
+                                            String filePath = nm2.getKey("filePath");
+
+                                            File f = new File(filePath);
+                                            Files.copy(f.toPath(), out);
+                                            f.delete();
+
+                                            return new Response(Result.OK);
                                         }
+                                        else
+                                        {
+                                             return new Response(
+                                                Result.ERROR,
+                                                new Error(ErrorCode.IMAGE_NOT_FOUND, "Image download error.")
+                                            );
+                                        }   
+                                    }                                     
+                                }
+
+                                @Override
+                                public Response getThumbnail(OutputStream out) throws IOException
+                                {
+                                 
+                                    if (nm.hasKey("ThumbPath"))
+                                    {
+                                        String filePath = nm.getKey("ThumbPath");
+                                        
+                                        File f = new File(filePath);
+                                        Files.copy(f.toPath(), out);
+                                        f.delete();
+                                        
+                                        return new Response(Result.OK);
                                     }
+                                    else
+                                    {
+                                        USBMessage nm2 = br.sendCommand(GET_THUMBNAIL + "\n" + nm.getKey("ID"));
+
+                                        if (!nm2.hasError())
+                                        {
+                                            String filePath = nm2.getKey("filePath");
+
+                                            File f = new File(filePath);
+                                            Files.copy(f.toPath(), out);
+                                            f.delete();
+
+                                            return new Response(Result.OK);
+                                        }
+                                        else
+                                        {
+                                             return new Response(
+                                                Result.ERROR,
+                                                new Error(ErrorCode.IMAGE_NOT_FOUND, "Thumbnail download error.")
+                                            );
+                                        }    
+                                    }                                    
+                                }
+                            });
+                        });
+                        break;
+
+                    case "captureComplete":
+
+                        EventDispatcher.get().post(cel, "captureComplete", () -> {
+                            cel.captureComplete(c, new Capture() {
+                                @Override
+                                public String getId()
+                                {    
+                                    return nm.getKey("ID");                                        
+                                }
+
+                                @Override
+                                public CaptureState getState()
+                                {    
+                                    if ("Complete".equals(nm.getKey("State")))
+                                    {
+                                        return CaptureState.COMPLETE;
+                                    }
+
+                                    return CaptureState.EXECUTING;                                        
+                                }
+
+                                @Override
+                                public CaptureMethod getMethod()
+                                {    
+                                    if ("Movie".equals(nm.getKey("Method")))
+                                    {
+                                        return CaptureMethod.MOVIE;
+                                    }
+
+                                    return CaptureMethod.STILL_IMAGE;                                        
                                 }
                             }
+                            );
+                        });
+                        break;
 
-                        }
-                        catch (IOException e)
-                        {
-                            this.disconnectCamera(0);
-                        }
-                    }, "USB Bridge USB callback handler")
-                );
-                
-                return true;
+                    default:
+                        break;
+                }
             }
         }
-        catch (IOException e)
-        {
-            
-        }   
         
-        return false;
+        dispatch.commit(eventName, targets.length);
     }
     
 
 
     
     public boolean getSettings(List<CaptureSetting> list)
+    {
+        return getSettingsAsync(list).join();
+    }
+    
+    @Override
+    public CompletableFuture<Boolean> getSettingsAsync(List<CaptureSetting> list)
     {
         if (!isConnected())
         {
-            System.err.println("Not connected");  
+            LOG.warn("Not connected");  
         
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         
-        USBMessage nm = this.sendCommand(GET_ALL_SETTINGS);
-        
+        return this.sendCommandAsync(GET_ALL_SETTINGS).thenApply((USBMessage nm) -> readSettings(nm, list));
+    }
+    
+    private boolean readSettings(USBMessage nm, List<CaptureSetting> list)
+    {
         for (int i = 0; i < list.size(); i++)
         {
             CaptureSetting s = list.get(i);
             
             if (s == null)
             {
-                System.err.println("Null value passed to getCaptureSettings");
+                LOG.warn("Null value passed to getCaptureSettings");
             }
             else
             {     
@@ -786,7 +1157,7 @@ public final class USBBridge implements USBInterface
                 }
                 else
                 {
-                    System.err.println("Failed to get " + s.getName() + " value from camera");
+                    LOG.warn("Failed to get {} value from camera", s.getName());
 
                     return false;
                 }
@@ -801,7 +1172,7 @@ public final class USBBridge implements USBInterface
     {        
         if (!isConnected())
         {
-            System.err.println("Not connected");  
+            LOG.warn("Not connected");  
         
             return null;
         }
@@ -830,14 +1201,14 @@ public final class USBBridge implements USBInterface
         }
         else
         {
-            System.err.println("Unsupported setting supplied " + s);
+            LOG.warn("Unsupported setting supplied {}", s);
             
             return null;
         }
         
         if (nm.hasError())
         {
-            System.err.println(nm.getError());
+            LOG.warn("{}", nm.getError());
 
             return null;
         }
@@ -851,82 +1222,89 @@ public final class USBBridge implements USBInterface
     
     @Deprecated
     public boolean setSetting(CaptureSetting s)
+    {        
+        return setSettingAsync(s).join();
+    }
+    
+    private CompletableFuture<Boolean> setSettingAsync(CaptureSetting s)
     {        
         if (!isConnected())
         {
-            System.err.println("Not connected");  
+            LOG.warn("Not connected");  
         
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         
-        final USBMessage nm;
+        final String command;
         
         if ((new FNumber()).getName().equals(s.getName()))
         {
-            nm = this.sendCommand(SET_APERTURE + "\n" + s.getValue());
+            command = SET_APERTURE + "\n" + s.getValue();
         }
         else if ((new ShutterSpeed()).getName().equals(s.getName()))
         {
-            nm = this.sendCommand(SET_SHUTTER_SPEED + "\n" + s.getValue());
+            command = SET_SHUTTER_SPEED + "\n" + s.getValue();
         }
         else if ((new ISO()).getName().equals(s.getName()))
         {
-            nm = this.sendCommand(SET_ISO + "\n" + s.getValue());
+            command = SET_ISO + "\n" + s.getValue();
         }
         else if ((new ExposureCompensation()).getName().equals(s.getName()))
         {
-            nm = this.sendCommand(SET_EXPOSURE_COMPENSATION + "\n" + s.getValue());
+            command = SET_EXPOSURE_COMPENSATION + "\n" + s.getValue();
         }
         else
         {
-            System.err.println("Unsupported setting supplied");
+            LOG.warn("Unsupported setting supplied");
             
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         
+        return this.sendCommandAsync(command).thenApply(USBBridge::succeeded);
+    }
+    
+    private static boolean succeeded(USBMessage nm)
+    {
         if (nm.hasError())
         {
-            System.err.println(nm.getError());
+            LOG.warn("{}", nm.getError());
 
             return false;
         }
-        else
-        {
-            return true;
-        }        
+        
+        return true;
     }
     
 
 
     
     public StartCaptureResponse capture(boolean focus)
+    {
+        return captureAsync(focus).join();
+    }
+    
+    @Override
+    public CompletableFuture<StartCaptureResponse> captureAsync(boolean focus)
     {
         if (!isConnected())
         {
-            System.err.println("Not connected");
+            LOG.warn("Not connected");
             
-            return new StartCaptureResponse(
+            return CompletableFuture.completedFuture(new StartCaptureResponse(
                 Result.ERROR,
                 new Error(ErrorCode.NETWORK_ERROR, "Not connected"),
                 null
-            );
+            ));
         }
         
-        final USBMessage nm;
-
-        if (focus)
-        {
-            nm = this.sendCommand(CAPTURE_WITH_FOCUS);
-          
-        }
-        else
-        {
-            nm = this.sendCommand(CAPTURE);
-        }
-
+        return this.sendCommandAsync(focus ? CAPTURE_WITH_FOCUS : CAPTURE).thenApply(USBBridge::toCaptureResponse);
+    }
+    
+    private static StartCaptureResponse toCaptureResponse(USBMessage nm)
+    {
         if (nm.hasError())
         {
-            System.err.println(nm.getError());
+            LOG.warn("{}", nm.getError());
             
             return new StartCaptureResponse(
                 Result.ERROR,
@@ -966,13 +1344,13 @@ public final class USBBridge implements USBInterface
     {
         if (!isConnected())
         {
-            System.err.println("Not connected");
+            LOG.warn("Not connected");
             return false;
         }
         
         if (index != 0)
         {
-            System.err.println("Multiple cameras are not supported.");
+            LOG.warn("Multiple cameras are not supported.");
             return false;
         }
         else
@@ -981,11 +1359,12 @@ public final class USBBridge implements USBInterface
 
             if (nm.hasError())
             {
-                System.err.println(nm.getError());
+                LOG.warn("{}", nm.getError());
                 return false;
             }
             else
             {
+                cameraConnected = true;
                 return true;
             }
         }
@@ -994,7 +1373,9 @@ public final class USBBridge implements USBInterface
     @Override
     public boolean isBusy()
     {
-        return this.q.size() > 0;
+        USBDriverProcess d = driver;
+        
+        return d != null && d.getDispatcher().isBusy();
     }
     
 
@@ -1005,13 +1386,13 @@ public final class USBBridge implements USBInterface
     {
         if (!isConnected())
         {
-            System.err.println("Not connected");
+            LOG.warn("Not connected");
             return false;
         }
         
         if (index != 0)
         {
-            System.err.println("Multiple cameras are not supported.");
+            LOG.warn("Multiple cameras are not supported.");
             return false;
         }
         else
@@ -1020,17 +1401,17 @@ public final class USBBridge implements USBInterface
 
             if (nm.hasError())
             {
-                System.err.println(nm.getError());
+                LOG.warn("{}", nm.getError());
                 return false;
             }
             else
             {
-             
+                cameraConnected = false;
                 this.disconnect();
                 
                 for (CameraEventListener cel : c.getEventListeners())
                 {
-                    (new Thread(() -> {cel.deviceDisconnected(c);}, "USB Bridge camera disconnect")).start();                    
+                    EventDispatcher.get().post(cel, "deviceDisconnected", () -> {cel.deviceDisconnected(c);});                    
                 }
                 
                 return true;
@@ -1044,10 +1425,8 @@ public final class USBBridge implements USBInterface
 
         try
         {
-            BufferedReader buffer = new BufferedReader(new InputStreamReader(stream));
-                        
             int r;
-            while ((r = buffer.read()) != -1)
+            while ((r = stream.read()) != -1)
             {
                 char c = (char) r;
                 
@@ -1069,7 +1448,7 @@ public final class USBBridge implements USBInterface
     @Override
     public boolean focus()
     {
-        return this.sendCommand(FOCUS).hasError() == false;
+        return focusAsync().join();
     }
     
     @Override
@@ -1078,15 +1457,33 @@ public final class USBBridge implements USBInterface
     
     public boolean focus(int adjustment)
     {
-        return this.sendCommand(FOCUS_WITH_SETTING + "\n" + adjustment).hasError() == false;
+        return focusAsync(adjustment).join();
+    }
+    
+    @Override
+    public CompletableFuture<Boolean> focusAsync()
+    {
+        return this.sendCommandAsync(FOCUS).thenApply((USBMessage nm) -> nm.hasError() == false);
+    }
+    
+    @Override
+    public CompletableFuture<Boolean> focusAsync(int adjustment)
+    {
+        return this.sendCommandAsync(FOCUS_WITH_SETTING + "\n" + adjustment).thenApply((USBMessage nm) -> nm.hasError() == false);
     }
 
     @Override
     synchronized public boolean setSettings(List<CaptureSetting> settingList)
+    {
+        return setSettingsAsync(settingList).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setSettingsAsync(List<CaptureSetting> settingList)
     {
         if (settingList.size() == 1)
         {
-            return setSetting(settingList.get(0));
+            return setSettingAsync(settingList.get(0));
         }
         
         List<CaptureSetting> l = Arrays.asList(new FNumber(), new ShutterSpeed(), new ISO(), new ExposureCompensation());
@@ -1116,16 +1513,7 @@ public final class USBBridge implements USBInterface
             writeString += candidateVal;
         }
         
-        USBMessage nm = this.sendCommand(SET_ALL_SETTINGS + writeString);
-        
-        if (nm.hasError())
-        {
-            System.err.println(nm.getError());
-            return false;
-        }
-        
-        return true;
-        
+        return this.sendCommandAsync(SET_ALL_SETTINGS + writeString).thenApply(USBBridge::succeeded);
     }
 
     @Override
@@ -1135,7 +1523,7 @@ public final class USBBridge implements USBInterface
         
         if (nm.hasError())
         {
-            System.err.println(nm.getError());
+            LOG.warn("{}", nm.getError());
             return false;
         }
         
@@ -1149,7 +1537,7 @@ public final class USBBridge implements USBInterface
         
         if (nm.hasError())
         {
-            System.err.println(nm.getError());
+            LOG.warn("{}", nm.getError());
             return false;
         }
         
@@ -22,15 +22,12 @@ import com.ricoh.camera.sdk.wireless.api.response.StartCaptureResponse;
 import com.ricoh.camera.sdk.wireless.api.setting.camera.CameraDeviceSetting;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import lpt.event.EventDispatcher;
+import lpt.metrics.FlightEvents;
 
 
 
@@ -39,6 +36,7 @@ import java.util.concurrent.Executors;
 public final class USBCamera implements CameraDevice
 {
     private final USBInterface iface;
+    private final USBAsyncInterface async;
     private final String fw;
     private final String model;
     private final String serial;
@@ -46,9 +44,8 @@ public final class USBCamera implements CameraDevice
     private final int index;
     private boolean connected;
     private final List<CameraEventListener> listeners;
-    private static final int SOCKET_BUFFER_SIZE = 50000;
-    private ServerSocket sock;
-    ExecutorService liveViewExec;
+    private USBSocketLoop.Stream liveView;
+    private long previousFrame;
     
 
 
@@ -57,6 +54,7 @@ public final class USBCamera implements CameraDevice
     {
         this.index = index;
         this.iface = iface;
+        this.async = USBAsyncAdapter.of(iface);
         this.manu = manu;
         this.model = model;
         this.serial = serial;
@@ -106,6 +104,7 @@ public final class USBCamera implements CameraDevice
     @Override
     public void removeEventListener(CameraEventListener cl) {
         this.listeners.remove(cl);
+        EventDispatcher.get().release(cl);
     }
 
     @Override
@@ -123,6 +122,11 @@ public final class USBCamera implements CameraDevice
     {
         return this.iface.getStatus();
     }
+    
+    public CompletableFuture<CameraStatus> getStatusAsync()
+    {
+        return this.async.getStatusAsync();
+    }
 
     @Override
     public List<CameraImage> getImages() {
@@ -244,11 +248,43 @@ public final class USBCamera implements CameraDevice
         }    
     }
 
+    public CompletableFuture<Response> focusAsync()
+    {
+        return this.async.focusAsync().thenApply((Boolean ok) -> focusResponse(ok));
+    }
+    
+    public CompletableFuture<Response> focusAsync(int adjustment)
+    {
+        return this.async.focusAsync(adjustment).thenApply((Boolean ok) -> focusResponse(ok));
+    }
+    
+    private static Response focusResponse(boolean ok)
+    {
+        if (ok)
+        {
+            return new Response(
+                Result.OK
+            );
+        }
+        else
+        {
+            return new Response(
+                Result.ERROR,
+                new Error(ErrorCode.NETWORK_ERROR, "Failed to focus")
+            );
+        }    
+    }
+
     @Override
     public StartCaptureResponse startCapture(boolean focus)
     {  
         return this.iface.capture(focus);
     }
+    
+    public CompletableFuture<StartCaptureResponse> startCaptureAsync(boolean focus)
+    {  
+        return this.async.captureAsync(focus);
+    }
 
     @Override
     public Response stopCapture() {
@@ -273,6 +309,11 @@ public final class USBCamera implements CameraDevice
         );       
     }
 
+    public CompletableFuture<Response> getCaptureSettingsAsync(List<CaptureSetting> list)
+    {
+        return this.async.getSettingsAsync(list).thenApply((Boolean ok) -> settingsResponse(ok, "Error getting settings"));
+    }
+
     @Override
     public Response setCaptureSettings(List<CaptureSetting> list)
     {
@@ -290,6 +331,26 @@ public final class USBCamera implements CameraDevice
             new Error(ErrorCode.INVALID_ARGUMENT, "Error setting settings")
         );       
     }
+    
+    public CompletableFuture<Response> setCaptureSettingsAsync(List<CaptureSetting> list)
+    {
+        return this.async.setSettingsAsync(list).thenApply((Boolean ok) -> settingsResponse(ok, "Error setting settings"));
+    }
+    
+    private static Response settingsResponse(boolean ok, String error)
+    {
+        if (ok)
+        {
+            return new Response(
+                Result.OK
+            ); 
+        }
+        
+        return new Response(
+            Result.ERROR,
+            new Error(ErrorCode.INVALID_ARGUMENT, error)
+        );       
+    }
 
     
     
@@ -313,77 +374,40 @@ public final class USBCamera implements CameraDevice
     {            
         try
         {
-            final ServerSocket serverSocket = new ServerSocket(0);
-            sock = serverSocket;
-                        
-            if (this.iface.startLiveView(serverSocket.getLocalPort()))
+            if (liveView != null)
             {
-                if (liveViewExec != null)
+                liveView.close();
+            }
+            
+            final USBLiveViewDecoder decoder = new USBLiveViewDecoder(this::liveViewFrame);
+            
+            USBSocketLoop.Stream stream = USBSocketLoop.get().listen(new USBSocketLoop.Reader()
+            {
+                @Override
+                public void read(ByteBuffer in)
                 {
-                    liveViewExec.shutdownNow();
+                    decoder.decode(in);
                 }
                 
-                liveViewExec = Executors.newSingleThreadExecutor();
-                liveViewExec.submit(
-                
-                    new Thread(() ->
-                    {
-                        try 
-                        {   
-                            Socket socket = serverSocket.accept();
-                            InputStream inputStream = socket.getInputStream();
-
-                            while (true)
-                            {                        
-                                // Read a fixed amount of data
-                                byte[] sizeAr = new byte[4];
-                                inputStream.read(sizeAr);
-                                byte[] imageAr = new byte[SOCKET_BUFFER_SIZE];
-                                inputStream.read(imageAr);
-
-                                try
-                                {
-                                    int size = ByteBuffer.wrap(sizeAr).asIntBuffer().get();
-
-                                    final byte[] imageAr2 = Arrays.copyOfRange(imageAr, 0, size);
-
-                                    if (imageAr[size - 1] == -39)
-                                    {                        
-                                        new Thread(() -> {
-                                            listeners.forEach((CameraEventListener cel) ->
-                                            { 
-                                                cel.liveViewFrameUpdated(this, imageAr2);
-                                            });
-                                        }, "USBCamera liveViewFrameUpdated").start();
-                                    }
-                                }
-                                catch(java.lang.ArrayIndexOutOfBoundsException | java.lang.IllegalArgumentException e)
-                                {
-
-                                }
-                            }
-                        }
-                        catch (Exception ex)
-                        {    
-                            try
-                            {
-                                serverSocket.close();
-                            } 
-                            catch (IOException ex1)
-                            {
-
-                            }
-                        }                
-                    }, "USBCamera startLiveView")
-                );
-                
+                @Override
+                public void closed(IOException cause)
+                {
+                    // The loop has already closed the socket; stopLiveView still tells the driver.
+                }
+            });
+            
+            liveView = stream;
+            previousFrame = System.nanoTime();
+                        
+            if (this.iface.startLiveView(stream.getLocalPort()))
+            {
                 return new Response(
                     Result.OK
                 );
             }
             else
             {
-                serverSocket.close();
+                stream.close();
                 
                 return new Response(
                     Result.ERROR,
@@ -399,17 +423,39 @@ public final class USBCamera implements CameraDevice
             );
         }
     }
+    
+    
+    
+    
+    // Called on the socket loop for every block the driver sends; frame is null when size is out of range.
+    private void liveViewFrame(int size, byte[] frame)
+    {
+        boolean complete = frame != null && frame[size - 1] == -39;
+
+        USBTraceRecorder.get().frame(size);
+
+        long now = System.nanoTime();
+        FlightEvents.LIVE_VIEW_FRAME.commit(size, now - previousFrame, complete);
+        previousFrame = now;
+
+        if (complete)
+        {                        
+            for (CameraEventListener cel : getEventListeners())
+            {
+                EventDispatcher.get().postLatest(cel, "liveViewFrameUpdated", () -> {
+                    cel.liveViewFrameUpdated(this, frame);
+                });
+            }
+        }
+    }
 
     @Override
     public Response stopLiveView()
     {    
-        try 
+        if (liveView != null)
         {
-            if (sock != null)
-            {
-                sock.close();
-            }
-        } catch (IOException ex) {}
+            liveView.close();
+        }
         
         if (this.iface.stopLiveView())
         {
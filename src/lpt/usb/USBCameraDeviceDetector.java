@@ -10,14 +10,18 @@ import com.ricoh.camera.sdk.wireless.api.CameraDevice;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
+import lpt.log.Log;
 
 
 
 
 public class USBCameraDeviceDetector
 {
+    private static final Log LOG = Log.get("usb");
     private static USBInterface instance;
+    private static CameraDevice fake;
     public static Class<?> PF_USB_BRIDGE = USBBridge.class;
+    public static Class<?> PF_FAKE = USBFakeCamera.class;
     
 
 
@@ -35,13 +39,12 @@ public class USBCameraDeviceDetector
                 }
                 catch (Exception e)
                 {
-                    System.err.println("Invalid interface requested");
-                    System.err.println(e);
+                    LOG.error("Invalid interface requested: {}", e);
                 }
             }
             else
             {
-                System.err.println("Invalid interface requested");
+                LOG.error("Invalid interface requested");
             }
         }
         return instance;
@@ -50,8 +53,49 @@ public class USBCameraDeviceDetector
 
 
     
+    public static Class<?> getDefaultPlatform()
+    {
+        return "fake".equals(System.getProperty("lpt.usb.platform")) ? PF_FAKE : PF_USB_BRIDGE;
+    }
+    
+
+
+    
+    private static synchronized CameraDevice getFake(Class<?> cls)
+    {
+        if (fake == null)
+        {
+            try
+            {
+                fake = (CameraDevice) cls.getConstructor().newInstance();
+            }
+            catch (Exception e)
+            {
+                LOG.error("Invalid camera requested: {}", e);
+            }
+        }
+        
+        return fake;
+    }
+    
+
+
+    
     public static List<CameraDevice> detect(Class<?> cls)
     {
+        if (CameraDevice.class.isAssignableFrom(cls))
+        {
+            List<CameraDevice> out = new ArrayList<>();
+            CameraDevice d = getFake(cls);
+            
+            if (d != null)
+            {
+                out.add(d);
+            }
+            
+            return out;
+        }
+        
         USBInterface iface = getInstance(cls);
         
         if (iface != null)
@@ -9,7 +9,11 @@ package lpt.usb;
 import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +21,8 @@ import java.util.logging.Logger;
 public class USBCameraSetting <T extends CaptureSetting> extends CaptureSetting
 {
     public static final String LIST_DELIM = "\\|";
+    
+    private static final Map<Class<?>, Map<String, CaptureSetting>> INDEX = new ConcurrentHashMap<>();
 
     
     public static <T extends CaptureSetting> USBCameraSetting<T> getUSBSetting(String current, String available, Class<T> cls)
@@ -74,42 +80,59 @@ public class USBCameraSetting <T extends CaptureSetting> extends CaptureSetting
    
     public static <T extends CaptureSetting> T getMatchingSetting(String candidate, Class<T> cls)
     {        
-        
+        return cls.cast(getIndex(cls).get(candidate));
+    }    
+    
 
-        Field[] declaredFields = cls.getDeclaredFields();
-        List<Field> staticFields = new ArrayList<>();
-        
-        for (Field field : declaredFields)
-        {
-            if (java.lang.reflect.Modifier.isStatic(field.getModifiers())
-                    && java.lang.reflect.Modifier.isPublic(field.getModifiers())) {
-                staticFields.add(field);
-            }
-        }
-        
+
+    
+    static List<String> getKnownValues(Class<? extends CaptureSetting> cls)
+    {
+        return new ArrayList<>(getIndex(cls).keySet());
+    }
+    
 
 
+    
+    private static Map<String, CaptureSetting> getIndex(Class<? extends CaptureSetting> cls)
+    {
+        return INDEX.computeIfAbsent(cls, USBCameraSetting::buildIndex);
+    }
+    
+
+
+    
+    private static Map<String, CaptureSetting> buildIndex(Class<?> cls)
+    {
+        Map<String, CaptureSetting> index = new LinkedHashMap<>();
         
-        for (Field f : staticFields)
+        for (Field f : cls.getDeclaredFields())
         {
-            T test;
+            if (!java.lang.reflect.Modifier.isStatic(f.getModifiers())
+                    || !java.lang.reflect.Modifier.isPublic(f.getModifiers()))
+            {
+                continue;
+            }
+            
+            Object test;
             
             try
             {
-                test = (T) f.get(cls);
+                test = f.get(cls);
             }
             catch (IllegalArgumentException | IllegalAccessException ex)
             {
                 Logger.getLogger(USBCameraSetting.class.getName()).log(Level.SEVERE, null, ex);
-                return null;
+                continue;
             }
             
-            if (test != null && test.getValue().toString().equals(candidate))
-            {            
-                return test;
-            }         
+            if (cls.isInstance(test) && ((CaptureSetting) test).getValue() != null)
+            {
+                // The first declared constant wins, as the linear scan did.
+                index.putIfAbsent(((CaptureSetting) test).getValue().toString(), (CaptureSetting) test);
+            }
         }
         
-        return null;
-    }    
+        return Collections.unmodifiableMap(index);
+    }
 }
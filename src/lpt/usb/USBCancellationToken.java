@@ -0,0 +1,49 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.concurrent.CompletableFuture;
+
+
+
+
+public final class USBCancellationToken
+{
+    private final CompletableFuture<Void> cancelled;
+
+
+
+
+    public USBCancellationToken()
+    {
+        this.cancelled = new CompletableFuture<>();
+    }
+
+
+
+
+    public void cancel()
+    {
+        cancelled.complete(null);
+    }
+
+
+
+
+    public boolean isCancelled()
+    {
+        return cancelled.isDone();
+    }
+
+
+
+
+    void onCancel(Runnable r)
+    {
+        cancelled.thenRun(r);
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lpt.metrics.Metrics;
+import lpt.metrics.OperationMetrics;
+
+
+
+
+/*
+ * Per-opcode counters and latency histograms for driver commands, published under lpt:type=USBBridge,name=<opcode
+ * constant>.  Latency runs from submission to reply, so it includes time spent queued behind other commands.
+ */
+final class USBCommandMetrics
+{
+    public static final String GROUP = "USBBridge";
+
+    private static final Map<String, String> NAMES = opcodeNames();
+    private static final Map<String, OperationMetrics> BY_OPCODE = new ConcurrentHashMap<>();
+
+
+
+
+    private USBCommandMetrics()
+    {
+    }
+
+
+
+
+    public static String nameOf(String opcode)
+    {
+        return NAMES.getOrDefault(opcode, "OPCODE_" + opcode);
+    }
+
+
+
+
+    public static OperationMetrics of(String opcode)
+    {
+        OperationMetrics m = BY_OPCODE.get(opcode);
+
+        if (m == null)
+        {
+            m = Metrics.operation(GROUP, nameOf(opcode));
+            BY_OPCODE.putIfAbsent(opcode, m);
+        }
+
+        return m;
+    }
+
+
+
+
+    // Cancellations are the caller giving up, not the driver misbehaving, so they have no outcome.
+    public static OperationMetrics.Outcome outcome(USBMessage nm)
+    {
+        if ("CancelledError".equals(nm.getType()))
+        {
+            return null;
+        }
+
+        if ("TimeoutError".equals(nm.getType()))
+        {
+            return OperationMetrics.Outcome.TIMEOUT;
+        }
+
+        if (nm.isMalformed() || nm.hasError())
+        {
+            return OperationMetrics.Outcome.ERROR;
+        }
+
+        return OperationMetrics.Outcome.OK;
+    }
+
+
+
+
+    public static void record(String opcode, long nanos, USBMessage nm)
+    {
+        OperationMetrics.Outcome o = outcome(nm);
+
+        if (o != null)
+        {
+            of(opcode).record(nanos, o);
+        }
+    }
+
+
+
+
+    // The opcode constants on USBBridge are the only public static Strings made of digits.
+    private static Map<String, String> opcodeNames()
+    {
+        Map<String, String> names = new HashMap<>();
+
+        for (Field f : USBBridge.class.getDeclaredFields())
+        {
+            if (!Modifier.isStatic(f.getModifiers()) || !Modifier.isPublic(f.getModifiers()) || f.getType() != String.class)
+            {
+                continue;
+            }
+
+            try
+            {
+                String v = (String) f.get(null);
+
+                if (v != null && !v.isEmpty() && v.chars().allMatch(Character::isDigit))
+                {
+                    names.putIfAbsent(v, f.getName());
+                }
+            }
+            catch (IllegalAccessException ex)
+            {
+
+            }
+        }
+
+        return names;
+    }
+}
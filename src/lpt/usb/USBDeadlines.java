@@ -0,0 +1,119 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+
+
+final class USBDeadlines
+{
+    private static final int WINDOW = 64;
+    private static final int MIN_SAMPLES = 16;
+    private static final int RECOMPUTE_EVERY = 8;
+    private static final int HEADROOM = 4;
+    private static final double PERCENTILE = 0.99;
+
+    private final Map<String, Budget> budgets;
+    private final long fallback;
+
+
+
+
+    USBDeadlines(long fallbackMillis)
+    {
+        this.budgets = new ConcurrentHashMap<>();
+        this.fallback = fallbackMillis;
+
+        set(1000, 5000, USBBridge.GET_STATUS, USBBridge.GET_NUM_EVENTS, USBBridge.GET_NEXT_EVENT);
+        set(1000, 10000, USBBridge.GET_ALL_SETTINGS, USBBridge.SET_ALL_SETTINGS, USBBridge.GET_CAPTURE_METHOD,
+            USBBridge.GET_APERTURE, USBBridge.SET_APERTURE, USBBridge.GET_SHUTTER_SPEED, USBBridge.SET_SHUTTER_SPEED,
+            USBBridge.GET_ISO, USBBridge.SET_ISO, USBBridge.GET_EXPOSURE_COMPENSATION, USBBridge.SET_EXPOSURE_COMPENSATION);
+        set(2000, 15000, USBBridge.GET_DEVICE_INFO, USBBridge.CONNECT, USBBridge.DISCONNECT, USBBridge.EXIT,
+            USBBridge.START_EVENTS, USBBridge.START_LV, USBBridge.STOP_LV);
+        set(3000, 15000, USBBridge.FOCUS, USBBridge.FOCUS_WITH_SETTING);
+
+        // Captures cover long exposures and transfers cover full-size RAW files, so both keep the old ceiling.
+        set(5000, fallbackMillis, USBBridge.CAPTURE, USBBridge.CAPTURE_WITH_FOCUS);
+        set(10000, fallbackMillis, USBBridge.GET_IMAGE, USBBridge.GET_THUMBNAIL);
+    }
+
+
+
+
+    private void set(long floor, long ceiling, String... opcodes)
+    {
+        for (String op : opcodes)
+        {
+            budgets.put(op, new Budget(floor, ceiling));
+        }
+    }
+
+
+
+
+    public long getBudget(String opcode)
+    {
+        Budget b = budgets.get(opcode);
+
+        return b == null ? fallback : b.current;
+    }
+
+
+
+
+    public void record(String opcode, long nanos)
+    {
+        Budget b = budgets.get(opcode);
+
+        if (b != null)
+        {
+            b.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+
+
+
+    private static final class Budget
+    {
+        private final long floor;
+        private final long ceiling;
+        private final long[] samples;
+        private int count;
+        private volatile long current;
+
+        Budget(long floor, long ceiling)
+        {
+            this.floor = floor;
+            this.ceiling = ceiling;
+            this.samples = new long[WINDOW];
+            this.count = 0;
+            this.current = ceiling;
+        }
+
+        synchronized void record(long millis)
+        {
+            samples[count % WINDOW] = millis;
+            count++;
+
+            if (count >= MIN_SAMPLES && count % RECOMPUTE_EVERY == 0)
+            {
+                long[] sorted = Arrays.copyOf(samples, Math.min(count, WINDOW));
+                Arrays.sort(sorted);
+
+                long p = sorted[(int) Math.ceil(PERCENTILE * sorted.length) - 1];
+
+                current = Math.max(floor, Math.min(ceiling, p * HEADROOM));
+            }
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import lpt.log.Log;
+
+
+
+
+final class USBDispatcher
+{
+    private static final Log LOG = Log.get("usb");
+    
+    private final PrintWriter p;
+    private final USBFrameReader frames;
+    private final USBLanes q;
+    private final Queue<USBRequest> inFlight;
+    private final Object window;
+    private final Thread writer;
+    private final Thread reader;
+    private final int traceChannel;
+
+    private volatile boolean running;
+    private int depth;
+    private int onWire;
+
+
+
+
+    USBDispatcher(OutputStream out, InputStream in, int depth)
+    {
+        this(out, in, depth, null, 0);
+    }
+
+
+
+
+    USBDispatcher(OutputStream out, InputStream in, int depth, USBDriverLog noise, int traceChannel)
+    {
+        this.traceChannel = traceChannel;
+        this.p = new PrintWriter(out);
+        this.frames = new USBFrameReader(in, noise);
+        this.q = new USBLanes();
+        this.inFlight = new ConcurrentLinkedQueue<>();
+        this.window = new Object();
+        this.depth = Math.max(1, depth);
+        this.onWire = 0;
+        this.writer = new Thread(this::write, "USB Bridge dispatcher");
+        this.writer.setDaemon(true);
+        this.reader = new Thread(this::read, "USB Bridge reader");
+        this.reader.setDaemon(true);
+    }
+
+
+
+
+    public void start()
+    {
+        running = true;
+        reader.start();
+        writer.start();
+    }
+
+
+
+
+    public USBRequest submit(String c)
+    {
+        USBRequest r = new USBRequest(c);
+
+        if (!running)
+        {
+            r.complete(new USBMessage("DisconnectedError", c));
+            return r;
+        }
+
+        q.add(r);
+
+        return r;
+    }
+
+
+
+
+    public void setPipelineDepth(int d)
+    {
+        synchronized (window)
+        {
+            depth = Math.max(1, d);
+            window.notifyAll();
+        }
+    }
+
+
+
+
+    public int getPipelineDepth()
+    {
+        synchronized (window)
+        {
+            return depth;
+        }
+    }
+
+
+
+
+    public boolean isBusy()
+    {
+        return !inFlight.isEmpty() || !q.isEmpty();
+    }
+
+
+
+
+    public void shutdown()
+    {
+        running = false;
+        writer.interrupt();
+        reader.interrupt();
+
+        failPending((USBRequest r) -> new USBMessage("DisconnectedError", r.getCommand()));
+    }
+
+
+
+
+    private void failPending(Function<USBRequest, USBMessage> reason)
+    {
+        List<USBRequest> pending = new ArrayList<>();
+
+        USBRequest r;
+        while ((r = inFlight.poll()) != null)
+        {
+            pending.add(r);
+        }
+
+        q.drainTo(pending);
+
+        for (USBRequest req : pending)
+        {
+            req.complete(reason.apply(req));
+        }
+    }
+
+
+
+
+    private void write()
+    {
+        while (running)
+        {
+            USBRequest r;
+
+            // The slot is claimed before picking a request, so the pick happens as late as possible
+            // and a trigger submitted while the window is full still goes out next.
+            try
+            {
+                synchronized (window)
+                {
+                    while (onWire >= depth)
+                    {
+                        window.wait();
+                    }
+
+                    onWire++;
+                }
+
+                r = q.take();
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+
+            // Abandoned before it reached the wire, so the driver never sees it.
+            if (r.isDone())
+            {
+                release();
+                continue;
+            }
+
+            // Up to depth commands are written back to back; the reader matches replies in FIFO order.
+            inFlight.add(r);
+
+            if (!"".equals(r.getCommand()))
+            {
+                p.write(r.getCommand());
+                p.write("\n");
+                p.flush();
+
+                USBTraceRecorder.get().command(traceChannel, r.getCommand());
+            }
+
+            r.markWritten();
+
+            if (inFlight.peek() == r)
+            {
+                r.markStarted();
+            }
+        }
+    }
+
+
+
+
+    private void release()
+    {
+        synchronized (window)
+        {
+            onWire--;
+            window.notifyAll();
+        }
+    }
+
+
+
+
+    private void read()
+    {
+        try
+        {
+            USBMessage nm;
+            while ((nm = frames.readMessage()) != null)
+            {
+                USBTraceRecorder.get().response(traceChannel, nm.getRawData());
+
+                USBRequest r = inFlight.poll();
+
+                if (r == null)
+                {
+                    LOG.warn("USB reply without a pending request: {}", nm);
+                    continue;
+                }
+
+                r.complete(nm);
+                release();
+
+                // The writer checks too; whichever finds the next request both written and at the head starts it.
+                USBRequest next = inFlight.peek();
+
+                if (next != null && next.getWritten().isDone())
+                {
+                    next.markStarted();
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+
+        }
+
+        if (running)
+        {
+            running = false;
+            writer.interrupt();
+
+            // Same as reading an empty stream: callers see a malformed reply.
+            failPending((USBRequest r) -> new USBMessage(""));
+        }
+    }
+}
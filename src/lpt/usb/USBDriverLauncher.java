@@ -0,0 +1,41 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+
+
+
+interface USBDriverLauncher
+{
+
+
+    
+    public Process launch() throws IOException, URISyntaxException;
+    
+
+
+    
+    public static USBDriverLauncher getDefault()
+    {
+        String replay = System.getProperty("lpt.usb.replay");
+        
+        if (replay != null && !replay.isEmpty())
+        {
+            return new USBTraceReplayer(replay, Double.parseDouble(System.getProperty("lpt.usb.replaySpeed", "1")));
+        }
+        
+        if ("simulator".equals(System.getProperty("lpt.usb.driver")))
+        {
+            return new USBSimulatorLauncher();
+        }
+        
+        return new USBNativeDriverLauncher();
+    }
+}
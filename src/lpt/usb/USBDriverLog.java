@@ -0,0 +1,138 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import lpt.log.Log;
+
+
+
+
+final class USBDriverLog
+{
+    private static final int DRAIN_BUFFER_SIZE = 4096;
+
+    private final byte[] ring;
+    private long written;
+
+
+
+
+    USBDriverLog(int capacity)
+    {
+        this.ring = new byte[Math.max(1, capacity)];
+        this.written = 0;
+    }
+
+
+
+
+    public synchronized void append(byte[] b, int off, int len)
+    {
+        // Only the tail can survive, so skip whatever would be overwritten anyway.
+        if (len > ring.length)
+        {
+            off += len - ring.length;
+            written += len - ring.length;
+            len = ring.length;
+        }
+
+        int pos = (int) (written % ring.length);
+        int first = Math.min(len, ring.length - pos);
+
+        System.arraycopy(b, off, ring, pos, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+
+        written += len;
+    }
+
+
+
+
+    public void append(String s)
+    {
+        byte[] b = s.getBytes(Charset.defaultCharset());
+
+        append(b, 0, b.length);
+    }
+
+
+
+
+    public synchronized String snapshot()
+    {
+        int size = (int) Math.min(written, ring.length);
+        int start = (int) ((written - size) % ring.length);
+        byte[] out = new byte[size];
+        int first = Math.min(size, ring.length - start);
+
+        System.arraycopy(ring, start, out, 0, first);
+        System.arraycopy(ring, 0, out, first, size - first);
+
+        return new String(out, Charset.defaultCharset());
+    }
+
+
+
+
+    public synchronized long getWritten()
+    {
+        return written;
+    }
+
+
+
+
+    // Writes the captured output as a single warning, so it stays together with whatever else is being logged.
+    public void dump(Log log, String header)
+    {
+        String s = snapshot();
+
+        if (s.isEmpty())
+        {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder(header);
+
+        for (String line : s.split("\r?\n"))
+        {
+            sb.append("\n    | ").append(line);
+        }
+
+        log.warn("{}", sb);
+    }
+
+
+
+
+    public void drain(InputStream in, String name)
+    {
+        Thread t = new Thread(() ->
+        {
+            byte[] buf = new byte[DRAIN_BUFFER_SIZE];
+
+            try
+            {
+                int n;
+                while ((n = in.read(buf)) != -1)
+                {
+                    append(buf, 0, n);
+                }
+            }
+            catch (IOException ex)
+            {
+
+            }
+        }, name);
+
+        t.setDaemon(true);
+        t.start();
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+
+
+final class USBDriverProcess
+{
+    private final Process process;
+    private final USBDispatcher dispatcher;
+    private final USBDriverLog log;
+
+
+
+
+    private USBDriverProcess(Process process, int pipelineDepth)
+    {
+        this.process = process;
+        this.log = new USBDriverLog(USBBridge.DRIVER_LOG_SIZE);
+        this.log.drain(process.getErrorStream(), "USB Bridge driver stderr");
+        this.dispatcher = new USBDispatcher(process.getOutputStream(), process.getInputStream(), pipelineDepth, log,
+            USBTraceRecorder.get().launch());
+        this.dispatcher.start();
+    }
+
+
+
+
+    public static USBDriverProcess spawn(USBDriverLauncher launcher, int pipelineDepth) throws IOException, URISyntaxException
+    {
+        return new USBDriverProcess(launcher.launch(), pipelineDepth);
+    }
+
+
+
+
+    public boolean probe(long timeoutMillis)
+    {
+        if (!process.isAlive())
+        {
+            return false;
+        }
+
+        USBRequest r = dispatcher.submit(USBBridge.GET_NUM_EVENTS);
+
+        try
+        {
+            return !r.getReply().get(timeoutMillis, TimeUnit.MILLISECONDS).isMalformed();
+        }
+        catch (InterruptedException | ExecutionException | TimeoutException ex)
+        {
+            r.abandon();
+
+            return false;
+        }
+    }
+
+
+
+
+    public boolean isAlive()
+    {
+        return process.isAlive();
+    }
+
+
+
+
+    public Process getProcess()
+    {
+        return process;
+    }
+
+
+
+
+    public USBDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+
+
+
+    public USBDriverLog getLog()
+    {
+        return log;
+    }
+
+
+
+
+    public void destroy()
+    {
+        dispatcher.shutdown();
+        process.destroyForcibly();
+    }
+}
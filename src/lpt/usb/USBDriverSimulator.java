@@ -0,0 +1,569 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureMethod;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+
+/*
+ * Stand-in for usb_interface_*: speaks the same stdin/stdout protocol against a simulated camera.
+ * Launched by USBBridge when -Dlpt.usb.driver=simulator; tuned through lpt.sim.* properties (see the constants).
+ */
+public final class USBDriverSimulator
+{
+    public static final int COMMAND_LATENCY = Integer.getInteger("lpt.sim.commandLatency", 5);
+    public static final int FOCUS_LATENCY = Integer.getInteger("lpt.sim.focusLatency", 150);
+    public static final int CAPTURE_LATENCY = Integer.getInteger("lpt.sim.captureLatency", 300);
+    public static final int TRANSFER_LATENCY = Integer.getInteger("lpt.sim.transferLatency", 200);
+    public static final int JPEG_SIZE = Integer.getInteger("lpt.sim.jpegSize", 8000000);
+    public static final int PEF_SIZE = Integer.getInteger("lpt.sim.pefSize", 30000000);
+    public static final int THUMB_SIZE = Integer.getInteger("lpt.sim.thumbSize", 10000);
+    public static final int LV_FRAME_SIZE = Integer.getInteger("lpt.sim.lvFrameSize", 30000);
+    public static final int LV_FPS = Integer.getInteger("lpt.sim.lvFps", 30);
+    public static final String FORMATS = System.getProperty("lpt.sim.formats", "JPEG,PEF");
+    public static final String MODEL = System.getProperty("lpt.sim.model", "PENTAX K-1 Simulator");
+
+    private static final int FILL_SIZE = 65536;
+
+    private final PrintStream out;
+    private final Map<String, List<String>> available;
+    private final Map<String, String> current;
+    private final Map<String, String> images;
+    private final AtomicInteger nextCapture;
+    private final AtomicInteger nextImage;
+    private final ScheduledExecutorService camera;
+    private final File dir;
+
+    private volatile String lastCapture;
+    private volatile boolean capturing;
+    private volatile boolean running;
+    private Socket events;
+    private Socket liveView;
+    private ScheduledFuture<?> frames;
+
+
+
+
+    private USBDriverSimulator(PrintStream out) throws IOException
+    {
+        this.out = out;
+        this.available = new LinkedHashMap<>();
+        this.current = new LinkedHashMap<>();
+        this.images = new LinkedHashMap<>();
+        this.nextCapture = new AtomicInteger();
+        this.nextImage = new AtomicInteger();
+        this.camera = Executors.newSingleThreadScheduledExecutor();
+        this.dir = File.createTempFile("lpt-sim", "");
+        this.lastCapture = "0";
+        this.running = true;
+
+        if (!dir.delete() || !dir.mkdir())
+        {
+            throw new IOException("Could not create " + dir);
+        }
+
+        dir.deleteOnExit();
+
+        addSetting(new FNumber(), "5.6");
+        addSetting(new ShutterSpeed(), "1/125");
+        addSetting(new ISO(), "100");
+        addSetting(new ExposureCompensation(), "0.0");
+        addSetting(new CaptureMethod(), "StillImage");
+    }
+
+
+
+
+    public static void main(String[] args) throws IOException
+    {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out), false, "UTF-8");
+
+        // Anything but replies on stdout would desync the bridge, so stray prints go to stderr.
+        System.setOut(System.err);
+
+        new USBDriverSimulator(out).run(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+
+        System.exit(0);
+    }
+
+
+
+
+    private void addSetting(CaptureSetting s, String preferred)
+    {
+        List<String> values = USBCameraSetting.getKnownValues(s.getClass());
+
+        available.put(s.getName(), values);
+        current.put(s.getName(), values.contains(preferred) || values.isEmpty() ? preferred : values.get(0));
+    }
+
+
+
+
+    private void run(BufferedReader in) throws IOException
+    {
+        String op;
+        while (running && (op = in.readLine()) != null)
+        {
+            op = op.trim();
+
+            if (op.isEmpty())
+            {
+                continue;
+            }
+
+            String[] params = new String[paramCount(op)];
+
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = in.readLine();
+
+                if (params[i] == null)
+                {
+                    return;
+                }
+            }
+
+            sleep(COMMAND_LATENCY);
+            reply(handle(op, params));
+        }
+
+        camera.shutdownNow();
+    }
+
+
+
+
+    private static int paramCount(String op)
+    {
+        switch (op)
+        {
+            case USBBridge.SET_ALL_SETTINGS:
+                return 4;
+            case USBBridge.SET_APERTURE:
+            case USBBridge.SET_SHUTTER_SPEED:
+            case USBBridge.SET_ISO:
+            case USBBridge.SET_EXPOSURE_COMPENSATION:
+            case USBBridge.FOCUS_WITH_SETTING:
+            case USBBridge.START_EVENTS:
+            case USBBridge.START_LV:
+            case USBBridge.GET_IMAGE:
+            case USBBridge.GET_THUMBNAIL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+
+
+
+    private String handle(String op, String[] p) throws IOException
+    {
+        switch (op)
+        {
+            case USBBridge.GET_DEVICE_INFO:
+                return ok("Response", "Detected Devices=1,Manufacturer0=RICOH IMAGING,Model0=" + MODEL
+                    + ",Serial Number0=SIM00001,Firmware Version0=1.00");
+
+            case USBBridge.CONNECT:
+            case USBBridge.DISCONNECT:
+                return ok("Response", "");
+
+            case USBBridge.EXIT:
+                running = false;
+                return ok("Response", "");
+
+            case USBBridge.GET_STATUS:
+                return ok("Status", "BatteryLevel=87,Status=" + (capturing ? "Executing" : "Complete")
+                    + ",ID=" + lastCapture + ",Method=StillImage");
+
+            case USBBridge.GET_NUM_EVENTS:
+                return ok("Status", "numEvents=0");
+
+            case USBBridge.GET_NEXT_EVENT:
+                return error("No events pending");
+
+            case USBBridge.GET_APERTURE:
+                return settings(new FNumber().getName());
+            case USBBridge.GET_SHUTTER_SPEED:
+                return settings(new ShutterSpeed().getName());
+            case USBBridge.GET_ISO:
+                return settings(new ISO().getName());
+            case USBBridge.GET_EXPOSURE_COMPENSATION:
+                return settings(new ExposureCompensation().getName());
+            case USBBridge.GET_CAPTURE_METHOD:
+                return settings(new CaptureMethod().getName());
+            case USBBridge.GET_ALL_SETTINGS:
+                return settings(available.keySet().toArray(new String[0]));
+
+            case USBBridge.SET_APERTURE:
+                return set(new FNumber().getName(), p[0]);
+            case USBBridge.SET_SHUTTER_SPEED:
+                return set(new ShutterSpeed().getName(), p[0]);
+            case USBBridge.SET_ISO:
+                return set(new ISO().getName(), p[0]);
+            case USBBridge.SET_EXPOSURE_COMPENSATION:
+                return set(new ExposureCompensation().getName(), p[0]);
+
+            case USBBridge.SET_ALL_SETTINGS:
+            {
+                // Same order as USBBridge.setSettings; a blank line leaves that setting alone.
+                String[] names = {new FNumber().getName(), new ShutterSpeed().getName(), new ISO().getName(), new ExposureCompensation().getName()};
+
+                for (int i = 0; i < names.length; i++)
+                {
+                    if (!p[i].trim().isEmpty() && !available.get(names[i]).contains(p[i].trim()))
+                    {
+                        return error("Invalid " + names[i] + " " + p[i].trim());
+                    }
+                }
+
+                for (int i = 0; i < names.length; i++)
+                {
+                    if (!p[i].trim().isEmpty())
+                    {
+                        current.put(names[i], p[i].trim());
+                    }
+                }
+
+                return ok("Response", "");
+            }
+
+            case USBBridge.FOCUS:
+            case USBBridge.FOCUS_WITH_SETTING:
+                sleep(FOCUS_LATENCY);
+                return ok("Response", "");
+
+            case USBBridge.CAPTURE:
+            case USBBridge.CAPTURE_WITH_FOCUS:
+                return capture(USBBridge.CAPTURE_WITH_FOCUS.equals(op));
+
+            case USBBridge.START_EVENTS:
+                close(events);
+                events = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(p[0].trim()));
+                return ok("Response", "");
+
+            case USBBridge.START_LV:
+                startLiveView(Integer.parseInt(p[0].trim()));
+                return ok("Response", "");
+
+            case USBBridge.STOP_LV:
+                stopLiveView();
+                return ok("Response", "");
+
+            case USBBridge.GET_IMAGE:
+            case USBBridge.GET_THUMBNAIL:
+                return transfer(p[0].trim(), USBBridge.GET_THUMBNAIL.equals(op));
+
+            default:
+                return error("Unknown command " + op);
+        }
+    }
+
+
+
+
+    private String capture(boolean focus)
+    {
+        if (capturing)
+        {
+            return error("Camera busy");
+        }
+
+        String id = Integer.toString(nextCapture.incrementAndGet());
+        capturing = true;
+        lastCapture = id;
+
+        camera.schedule(() ->
+        {
+            capturing = false;
+            event("Event=captureComplete,ID=" + id + ",State=Complete,Method=StillImage");
+
+            long now = System.currentTimeMillis() / 1000;
+
+            for (String format : FORMATS.split(","))
+            {
+                String imageId = Integer.toString(nextImage.incrementAndGet());
+                String name = String.format("IMGP%04d.%s", Integer.parseInt(imageId) % 10000, "JPEG".equals(format) ? "JPG" : format);
+
+                synchronized (images)
+                {
+                    images.put(imageId, format);
+                }
+
+                event("Event=imageStored,ID=" + imageId + ",Name=" + name + ",Type=StillImage,Format=" + format
+                    + ",Date=" + now + ",HasThumbnail=1");
+            }
+        }, CAPTURE_LATENCY + (focus ? FOCUS_LATENCY : 0), TimeUnit.MILLISECONDS);
+
+        return ok("Response", "CaptureID=" + id + ",CaptureState=Executing,CaptureMethod=StillImage");
+    }
+
+
+
+
+    private String transfer(String id, boolean thumbnail) throws IOException
+    {
+        String format;
+
+        synchronized (images)
+        {
+            format = images.get(id);
+        }
+
+        if (format == null)
+        {
+            return error("No image " + id);
+        }
+
+        int size = thumbnail ? THUMB_SIZE : ("PEF".equals(format) ? PEF_SIZE : JPEG_SIZE);
+        File f = new File(dir, id + (thumbnail ? "_thumb.jpg" : "." + format.toLowerCase()));
+
+        try (OutputStream o = new BufferedOutputStream(new FileOutputStream(f), FILL_SIZE))
+        {
+            o.write(fill(size, thumbnail || !"PEF".equals(format)));
+        }
+
+        f.deleteOnExit();
+        sleep(TRANSFER_LATENCY);
+
+        return ok("Response", "filePath=" + f.getAbsolutePath());
+    }
+
+
+
+
+    // A JPEG-shaped (SOI ... EOI) or TIFF-shaped byte block; the content itself is never decoded.
+    private static byte[] fill(int size, boolean jpeg)
+    {
+        byte[] b = new byte[Math.max(4, size)];
+
+        for (int i = 0; i < b.length; i++)
+        {
+            b[i] = (byte) (i * 31);
+        }
+
+        if (jpeg)
+        {
+            b[0] = (byte) 0xFF;
+            b[1] = (byte) 0xD8;
+            b[b.length - 2] = (byte) 0xFF;
+            b[b.length - 1] = (byte) 0xD9;
+        }
+        else
+        {
+            b[0] = 'M';
+            b[1] = 'M';
+            b[2] = 0;
+            b[3] = 42;
+        }
+
+        return b;
+    }
+
+
+
+
+    private synchronized void startLiveView(int port) throws IOException
+    {
+        stopLiveView();
+
+        Socket s = new Socket(InetAddress.getLoopbackAddress(), port);
+        // Same framing as usb_interface: the length, then the JPEG zero-padded to a fixed block.
+        byte[] jpeg = fill(Math.min(LV_FRAME_SIZE, USBLiveViewDecoder.BLOCK), true);
+        byte[] frame = ByteBuffer.allocate(4 + USBLiveViewDecoder.BLOCK).putInt(jpeg.length).put(jpeg).array();
+
+        liveView = s;
+        frames = camera.scheduleAtFixedRate(() ->
+        {
+            try
+            {
+                s.getOutputStream().write(frame);
+                s.getOutputStream().flush();
+            }
+            catch (IOException ex)
+            {
+                stopLiveView();
+            }
+        }, 0, 1000000 / Math.max(1, LV_FPS), TimeUnit.MICROSECONDS);
+    }
+
+
+
+
+    private synchronized void stopLiveView()
+    {
+        if (frames != null)
+        {
+            frames.cancel(false);
+            frames = null;
+        }
+
+        close(liveView);
+        liveView = null;
+    }
+
+
+
+
+    private synchronized void event(String data)
+    {
+        if (events == null)
+        {
+            return;
+        }
+
+        try
+        {
+            OutputStream o = events.getOutputStream();
+            o.write(message("Event", "", data).getBytes(StandardCharsets.UTF_8));
+            o.flush();
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Event socket closed: " + ex);
+            events = null;
+        }
+    }
+
+
+
+
+    private String settings(String... names)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (String n : names)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append(',');
+            }
+
+            sb.append("current").append(n).append('=').append(current.get(n));
+            sb.append(",available").append(n).append('=').append(String.join("|", available.get(n)));
+        }
+
+        return ok("Response", sb.toString());
+    }
+
+
+
+
+    private String set(String name, String value)
+    {
+        value = value.trim();
+
+        if (!available.get(name).contains(value))
+        {
+            return error("Invalid " + name + " " + value);
+        }
+
+        current.put(name, value);
+
+        return ok("Response", "");
+    }
+
+
+
+
+    private void reply(String s)
+    {
+        out.print(s);
+        out.flush();
+    }
+
+
+
+
+    private static String ok(String typ, String data)
+    {
+        return message(typ, "", data);
+    }
+
+
+
+
+    private static String error(String err)
+    {
+        return message("Error", err, "");
+    }
+
+
+
+
+    private static String message(String typ, String err, String data)
+    {
+        return "{typ:" + typ + ",msg:,err:" + err + ",data:" + data + "}";
+    }
+
+
+
+
+    private static void close(Socket s)
+    {
+        if (s != null)
+        {
+            try
+            {
+                s.close();
+            }
+            catch (IOException ex)
+            {
+
+            }
+        }
+    }
+
+
+
+
+    private static void sleep(int millis)
+    {
+        if (millis <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.CameraDevice;
+import com.ricoh.camera.sdk.wireless.api.CameraEventListener;
+
+
+
+
+public abstract class USBEventListener extends CameraEventListener
+{
+
+
+    
+    public void deviceReconnected(CameraDevice sender)
+    {
+    }
+    
+    
+    
+    public void captureSettingsChanged(CameraDevice sender)
+    {
+    }
+}
@@ -0,0 +1,604 @@
+/**
+ * @author Libert
+ */
+
+
+
+
+package lpt.usb;
+
+import com.ricoh.camera.sdk.wireless.api.CameraDevice;
+import com.ricoh.camera.sdk.wireless.api.CameraEventListener;
+import com.ricoh.camera.sdk.wireless.api.CameraImage;
+import com.ricoh.camera.sdk.wireless.api.CameraStatus;
+import com.ricoh.camera.sdk.wireless.api.CameraStorage;
+import com.ricoh.camera.sdk.wireless.api.Capture;
+import com.ricoh.camera.sdk.wireless.api.CaptureState;
+import com.ricoh.camera.sdk.wireless.api.DeviceInterface;
+import com.ricoh.camera.sdk.wireless.api.ImageFormat;
+import com.ricoh.camera.sdk.wireless.api.ImageType;
+import com.ricoh.camera.sdk.wireless.api.response.Error;
+import com.ricoh.camera.sdk.wireless.api.response.ErrorCode;
+import com.ricoh.camera.sdk.wireless.api.response.Response;
+import com.ricoh.camera.sdk.wireless.api.response.Result;
+import com.ricoh.camera.sdk.wireless.api.response.StartCaptureResponse;
+import com.ricoh.camera.sdk.wireless.api.setting.camera.CameraDeviceSetting;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureMethod;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.CaptureSetting;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ExposureCompensation;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.FNumber;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ISO;
+import com.ricoh.camera.sdk.wireless.api.setting.capture.ShutterSpeed;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lpt.event.EventDispatcher;
+
+
+
+
+/*
+ * In-memory camera for exercising CameraControll, ImageDownloader and the listeners without a driver process.
+ * Picked by USBCameraDeviceDetector.detect(PF_FAKE); defaults come from lpt.fake.* properties and every
+ * latency and payload can be changed through the setters while it runs.
+ */
+public final class USBFakeCamera implements CameraDevice
+{
+    private static final int FILL_SIZE = 65536;
+
+    private final List<CameraEventListener> listeners;
+    private final List<CameraImage> images;
+    private final Map<String, CaptureSetting> settings;
+    private final Map<String, Class<? extends CaptureSetting>> classes;
+    private final Map<ImageFormat, byte[]> payloads;
+    private final AtomicInteger nextCapture;
+    private final AtomicInteger nextImage;
+    private final ScheduledExecutorService camera;
+
+    private volatile boolean connected;
+    private volatile Capture current;
+    private volatile int commandLatency;
+    private volatile int focusLatency;
+    private volatile int captureLatency;
+    private volatile int eventDelay;
+    private volatile int transferLatency;
+    private volatile List<ImageFormat> formats;
+    private ScheduledFuture<?> liveView;
+
+
+
+
+    public USBFakeCamera()
+    {
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.images = new CopyOnWriteArrayList<>();
+        this.settings = new ConcurrentHashMap<>();
+        this.classes = new ConcurrentHashMap<>();
+        this.payloads = new EnumMap<>(ImageFormat.class);
+        this.nextCapture = new AtomicInteger();
+        this.nextImage = new AtomicInteger();
+        this.camera = Executors.newSingleThreadScheduledExecutor((Runnable r) ->
+        {
+            Thread t = new Thread(r, "Fake camera");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.commandLatency = Integer.getInteger("lpt.fake.commandLatency", 5);
+        this.focusLatency = Integer.getInteger("lpt.fake.focusLatency", 150);
+        this.captureLatency = Integer.getInteger("lpt.fake.captureLatency", 300);
+        this.eventDelay = Integer.getInteger("lpt.fake.eventDelay", 20);
+        this.transferLatency = Integer.getInteger("lpt.fake.transferLatency", 100);
+        this.formats = Arrays.asList(ImageFormat.JPEG, ImageFormat.PEF);
+
+        setPayloadSize(ImageFormat.JPEG, Integer.getInteger("lpt.fake.jpegSize", 8000000));
+        setPayloadSize(ImageFormat.PEF, Integer.getInteger("lpt.fake.pefSize", 30000000));
+
+        setSetting(FNumber.class, "5.6");
+        setSetting(ShutterSpeed.class, "1/125");
+        setSetting(ISO.class, "100");
+        setSetting(ExposureCompensation.class, "0.0");
+        setSetting(CaptureMethod.class, "StillImage");
+    }
+
+
+
+
+    public void setCommandLatency(int millis)
+    {
+        commandLatency = millis;
+    }
+
+    public void setFocusLatency(int millis)
+    {
+        focusLatency = millis;
+    }
+
+    public void setCaptureLatency(int millis)
+    {
+        captureLatency = millis;
+    }
+
+    public void setEventDelay(int millis)
+    {
+        eventDelay = millis;
+    }
+
+    public void setTransferLatency(int millis)
+    {
+        transferLatency = millis;
+    }
+
+    public void setFormats(ImageFormat... f)
+    {
+        formats = Arrays.asList(f);
+    }
+
+    public synchronized void setPayload(ImageFormat f, byte[] data)
+    {
+        payloads.put(f, data);
+    }
+
+    public void setPayloadSize(ImageFormat f, int size)
+    {
+        byte[] b = new byte[Math.max(4, size)];
+
+        for (int i = 0; i < b.length; i++)
+        {
+            b[i] = (byte) (i * 31);
+        }
+
+        b[0] = (byte) 0xFF;
+        b[1] = (byte) 0xD8;
+        b[b.length - 2] = (byte) 0xFF;
+        b[b.length - 1] = (byte) 0xD9;
+
+        setPayload(f, b);
+    }
+
+    private synchronized byte[] getPayload(ImageFormat f)
+    {
+        byte[] b = payloads.get(f);
+
+        return b == null ? new byte[0] : b;
+    }
+
+
+
+
+    private void setSetting(Class<? extends CaptureSetting> cls, String value)
+    {
+        List<String> values = USBCameraSetting.getKnownValues(cls);
+        CaptureSetting s = USBCameraSetting.getUSBSetting(values.contains(value) ? value : values.get(0), String.join("|", values), cls);
+
+        settings.put(s.getName(), s);
+        classes.put(s.getName(), cls);
+    }
+
+
+
+
+    private static void sleep(int millis)
+    {
+        if (millis <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+
+
+    private static Response ok()
+    {
+        return new Response(
+            Result.OK
+        );
+    }
+
+    private static Response error(ErrorCode code, String message)
+    {
+        return new Response(
+            Result.ERROR,
+            new Error(code, message)
+        );
+    }
+
+
+
+
+    @Override
+    public String getManufacturer()
+    {
+        return "RICOH IMAGING";
+    }
+
+    @Override
+    public String getModel()
+    {
+        return "PENTAX Fake Camera";
+    }
+
+    @Override
+    public String getFirmwareVersion()
+    {
+        return "1.00";
+    }
+
+    @Override
+    public String getSerialNumber()
+    {
+        return "FAKE00001";
+    }
+
+    @Override
+    public void addEventListener(CameraEventListener cl)
+    {
+        listeners.add(cl);
+    }
+
+    @Override
+    public void removeEventListener(CameraEventListener cl)
+    {
+        listeners.remove(cl);
+        EventDispatcher.get().release(cl);
+    }
+
+    @Override
+    public CameraEventListener[] getEventListeners()
+    {
+        return listeners.toArray(new CameraEventListener[0]);
+    }
+
+    @Override
+    public List<CameraStorage> getStorages()
+    {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public CameraStatus getStatus()
+    {
+        sleep(commandLatency);
+
+        final Capture c = current;
+
+        return new CameraStatus()
+        {
+            @Override
+            public int getBatteryLevel()
+            {
+                return 87;
+            }
+
+            @Override
+            public Capture getCurrentCapture()
+            {
+                return c;
+            }
+        };
+    }
+
+    @Override
+    public List<CameraImage> getImages()
+    {
+        return new ArrayList<>(images);
+    }
+
+    @Override
+    public Response updateImages()
+    {
+        return ok();
+    }
+
+    @Override
+    public Response connect(DeviceInterface di)
+    {
+        sleep(commandLatency);
+        connected = true;
+
+        return ok();
+    }
+
+    @Override
+    public Response disconnect(DeviceInterface di)
+    {
+        if (!connected)
+        {
+            return error(ErrorCode.DEVICE_NOT_FOUND, "Camera not connected.");
+        }
+
+        connected = false;
+        stopLiveView();
+
+        return ok();
+    }
+
+    @Override
+    public boolean isConnected(DeviceInterface di)
+    {
+        return connected;
+    }
+
+    @Override
+    public synchronized Response startLiveView()
+    {
+        stopLiveView();
+
+        byte[] frame = Arrays.copyOf(getPayload(ImageFormat.JPEG), Math.min(30000, getPayload(ImageFormat.JPEG).length));
+        frame[frame.length - 2] = (byte) 0xFF;
+        frame[frame.length - 1] = (byte) 0xD9;
+
+        liveView = camera.scheduleAtFixedRate(() ->
+        {
+            for (CameraEventListener cel : listeners)
+            {
+                EventDispatcher.get().postLatest(cel, "liveViewFrameUpdated", () -> {cel.liveViewFrameUpdated(this, frame);});
+            }
+        }, 0, 33, TimeUnit.MILLISECONDS);
+
+        return ok();
+    }
+
+    @Override
+    public synchronized Response stopLiveView()
+    {
+        if (liveView != null)
+        {
+            liveView.cancel(false);
+            liveView = null;
+        }
+
+        return ok();
+    }
+
+    @Override
+    public Response focus()
+    {
+        if (!connected)
+        {
+            return error(ErrorCode.NETWORK_ERROR, "Failed to focus");
+        }
+
+        sleep(commandLatency + focusLatency);
+
+        return ok();
+    }
+
+    @Override
+    public StartCaptureResponse startCapture(boolean focus)
+    {
+        if (!connected)
+        {
+            return new StartCaptureResponse(
+                Result.ERROR,
+                new Error(ErrorCode.NETWORK_ERROR, "Not connected"),
+                null
+            );
+        }
+
+        sleep(commandLatency);
+
+        Capture c = capture(Integer.toString(nextCapture.incrementAndGet()), CaptureState.EXECUTING);
+        current = c;
+
+        camera.schedule(() -> complete(c), captureLatency + (focus ? focusLatency : 0), TimeUnit.MILLISECONDS);
+
+        return new StartCaptureResponse(Result.OK, c);
+    }
+
+
+
+
+    // Same shape as the driver: captureComplete, then one imageStored per format, each through the event dispatcher.
+    private void complete(Capture c)
+    {
+        Capture done = capture(c.getId(), CaptureState.COMPLETE);
+        current = done;
+
+        for (CameraEventListener cel : listeners)
+        {
+            EventDispatcher.get().post(cel, "captureComplete", () -> {cel.captureComplete(this, done);});
+        }
+
+        for (ImageFormat f : formats)
+        {
+            sleep(eventDelay);
+
+            CameraImage image = new Image(nextImage.incrementAndGet(), f, getPayload(f));
+            images.add(image);
+
+            for (CameraEventListener cel : listeners)
+            {
+                EventDispatcher.get().post(cel, "imageStored", () -> {cel.imageStored(this, image);});
+            }
+        }
+    }
+
+
+
+
+    private static Capture capture(String id, CaptureState state)
+    {
+        return new Capture()
+        {
+            @Override
+            public String getId()
+            {
+                return id;
+            }
+
+            @Override
+            public CaptureState getState()
+            {
+                return state;
+            }
+
+            @Override
+            public CaptureMethod getMethod()
+            {
+                return CaptureMethod.STILL_IMAGE;
+            }
+        };
+    }
+
+    @Override
+    public Response stopCapture()
+    {
+        return ok();
+    }
+
+    @Override
+    public Response getCaptureSettings(List<CaptureSetting> list)
+    {
+        sleep(commandLatency);
+
+        for (int i = 0; i < list.size(); i++)
+        {
+            CaptureSetting s = settings.get(list.get(i).getName());
+
+            if (s == null)
+            {
+                return error(ErrorCode.INVALID_ARGUMENT, "Error getting settings");
+            }
+
+            list.set(i, s);
+        }
+
+        return ok();
+    }
+
+    @Override
+    public Response setCaptureSettings(List<CaptureSetting> list)
+    {
+        sleep(commandLatency);
+
+        for (CaptureSetting s : list)
+        {
+            Class<? extends CaptureSetting> cls = classes.get(s.getName());
+
+            if (cls == null || s.getValue() == null || !USBCameraSetting.getKnownValues(cls).contains(s.getValue().toString()))
+            {
+                return error(ErrorCode.INVALID_ARGUMENT, "Error setting settings");
+            }
+        }
+
+        for (CaptureSetting s : list)
+        {
+            setSetting(classes.get(s.getName()), s.getValue().toString());
+        }
+
+        return ok();
+    }
+
+    @Override
+    public Response getCameraDeviceSettings(List<CameraDeviceSetting> list)
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Response setCameraDeviceSettings(List<CameraDeviceSetting> list)
+    {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+
+
+
+    private final class Image implements CameraImage
+    {
+        private final int id;
+        private final ImageFormat format;
+        private final byte[] data;
+        private final Date date;
+
+        Image(int id, ImageFormat format, byte[] data)
+        {
+            this.id = id;
+            this.format = format;
+            this.data = data;
+            this.date = new Date();
+        }
+
+        @Override
+        public String getName()
+        {
+            return String.format("IMGP%04d.%s", id % 10000, format == ImageFormat.JPEG ? "JPG" : format.toString());
+        }
+
+        @Override
+        public ImageType getType()
+        {
+            return ImageType.STILL_IMAGE;
+        }
+
+        @Override
+        public ImageFormat getFormat()
+        {
+            return format;
+        }
+
+        @Override
+        public Date getDateTime()
+        {
+            return date;
+        }
+
+        @Override
+        public boolean hasThumbnail()
+        {
+            return true;
+        }
+
+        @Override
+        public CameraStorage getStorage()
+        {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        @Override
+        public Response getData(OutputStream out) throws IOException
+        {
+            sleep(transferLatency);
+
+            for (int off = 0; off < data.length; off += FILL_SIZE)
+            {
+                out.write(data, off, Math.min(FILL_SIZE, data.length - off));
+            }
+
+            return ok();
+        }
+
+        @Override
+        public Response getThumbnail(OutputStream out) throws IOException
+        {
+            sleep(transferLatency);
+
+            out.write(data, 0, Math.min(10000, data.length));
+
+            return ok();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+
+
+
+/*
+ * Incremental counterpart of USBFrameReader for the selector loop: takes whatever bytes have arrived, keeps a
+ * partial frame across calls and hands every complete, delimiter-terminated message to the consumer.
+ */
+final class USBFrameDecoder
+{
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final byte delim;
+    private final Charset charset;
+    private final Consumer<USBMessage> out;
+    private byte[] frame;
+    private int length;
+
+
+
+
+    USBFrameDecoder(Consumer<USBMessage> out)
+    {
+        this.delim = (byte) USBMessage.getMessageDelim();
+        this.charset = Charset.defaultCharset();
+        this.out = out;
+        this.frame = new byte[INITIAL_CAPACITY];
+        this.length = 0;
+    }
+
+
+
+
+    void decode(ByteBuffer in)
+    {
+        while (in.hasRemaining())
+        {
+            int start = in.position();
+            int end = start;
+
+            while (end < in.limit() && in.get(end) != delim)
+            {
+                end++;
+            }
+
+            boolean complete = end < in.limit();
+            int n = end - start + (complete ? 1 : 0);
+
+            if (length + n > frame.length)
+            {
+                frame = Arrays.copyOf(frame, Math.max(frame.length * 2, length + n));
+            }
+
+            in.get(frame, length, n);
+            length += n;
+
+            if (complete)
+            {
+                String s = new String(frame, 0, length, charset);
+                length = 0;
+
+                out.accept(new USBMessage(s));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+
+
+final class USBFrameReader
+{
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    private final InputStream in;
+    private final byte delim;
+    private final Charset charset;
+    private final USBDriverLog noise;
+    private byte[] frame;
+    private int length;
+
+
+
+
+    USBFrameReader(InputStream stream)
+    {
+        this(stream, USBMessage.getMessageDelim(), null);
+    }
+
+
+
+
+    USBFrameReader(InputStream stream, USBDriverLog noise)
+    {
+        this(stream, USBMessage.getMessageDelim(), noise);
+    }
+
+
+
+
+    USBFrameReader(InputStream stream, char target, USBDriverLog noise)
+    {
+        this.in = new BufferedInputStream(stream, READ_BUFFER_SIZE);
+        this.delim = (byte) target;
+        this.charset = Charset.defaultCharset();
+        this.noise = noise;
+        this.frame = new byte[INITIAL_CAPACITY];
+        this.length = 0;
+    }
+
+
+
+
+    public String readFrame() throws IOException
+    {
+        length = 0;
+
+        int b;
+        while ((b = in.read()) != -1)
+        {
+            if (length == frame.length)
+            {
+                frame = Arrays.copyOf(frame, frame.length * 2);
+            }
+
+            frame[length++] = (byte) b;
+
+            if (b == delim)
+            {
+                return new String(frame, 0, length, charset);
+            }
+        }
+
+        return null;
+    }
+
+
+
+
+    public USBMessage readMessage() throws IOException
+    {
+        if (noise == null)
+        {
+            String s = readFrame();
+
+            return s == null ? null : new USBMessage(s);
+        }
+
+        // Replies always open with '{'; anything ahead of it is library chatter on stdout.
+        while (readFrame() != null)
+        {
+            int open = 0;
+            while (open < length && frame[open] != '{')
+            {
+                open++;
+            }
+
+            if (open > 0)
+            {
+                noise.append(frame, 0, open);
+            }
+
+            if (open < length)
+            {
+                return new USBMessage(new String(frame, open, length - open, charset));
+            }
+        }
+
+        return null;
+    }
+}
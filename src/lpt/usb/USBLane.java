@@ -0,0 +1,70 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+
+
+enum USBLane
+{
+    TRIGGER(0),
+    CONTROL(250),
+    QUERY(1000),
+    BULK(2000);
+
+    private static final Map<String, USBLane> LANES = new HashMap<>();
+
+    static
+    {
+        set(TRIGGER, USBBridge.CAPTURE, USBBridge.CAPTURE_WITH_FOCUS, USBBridge.FOCUS, USBBridge.FOCUS_WITH_SETTING);
+        set(CONTROL, USBBridge.CONNECT, USBBridge.DISCONNECT, USBBridge.EXIT, USBBridge.START_EVENTS,
+            USBBridge.START_LV, USBBridge.STOP_LV, USBBridge.SET_ALL_SETTINGS, USBBridge.SET_APERTURE,
+            USBBridge.SET_SHUTTER_SPEED, USBBridge.SET_ISO, USBBridge.SET_EXPOSURE_COMPENSATION);
+        set(BULK, USBBridge.GET_IMAGE, USBBridge.GET_THUMBNAIL);
+    }
+
+    private final long maxWait;
+
+
+
+
+    USBLane(long maxWaitMillis)
+    {
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+
+
+
+    private static void set(USBLane lane, String... opcodes)
+    {
+        for (String op : opcodes)
+        {
+            LANES.put(op, lane);
+        }
+    }
+
+
+
+
+    public static USBLane of(String opcode)
+    {
+        return LANES.getOrDefault(opcode, QUERY);
+    }
+
+
+
+
+    public long getMaxWait()
+    {
+        return maxWait;
+    }
+}
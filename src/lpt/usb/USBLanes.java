@@ -0,0 +1,125 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+
+
+
+final class USBLanes
+{
+    private final Map<USBLane, ArrayDeque<USBRequest>> lanes;
+    private int size;
+
+
+
+
+    USBLanes()
+    {
+        this.lanes = new EnumMap<>(USBLane.class);
+        this.size = 0;
+
+        for (USBLane l : USBLane.values())
+        {
+            lanes.put(l, new ArrayDeque<>());
+        }
+    }
+
+
+
+
+    public synchronized void add(USBRequest r)
+    {
+        lanes.get(USBLane.of(r.getOpcode())).addLast(r);
+        size++;
+
+        notifyAll();
+    }
+
+
+
+
+    public synchronized USBRequest take() throws InterruptedException
+    {
+        while (size == 0)
+        {
+            wait();
+        }
+
+        size--;
+
+        return next().pollFirst();
+    }
+
+
+
+
+    // Triggers always go first.  Otherwise a lane whose head has waited past its limit is served
+    // before higher lanes, oldest first, so a steady stream of polls cannot park a download forever.
+    private ArrayDeque<USBRequest> next()
+    {
+        ArrayDeque<USBRequest> trigger = lanes.get(USBLane.TRIGGER);
+
+        if (!trigger.isEmpty())
+        {
+            return trigger;
+        }
+
+        long now = System.nanoTime();
+        ArrayDeque<USBRequest> overdue = null;
+        ArrayDeque<USBRequest> first = null;
+
+        for (Map.Entry<USBLane, ArrayDeque<USBRequest>> e : lanes.entrySet())
+        {
+            USBRequest head = e.getValue().peekFirst();
+
+            if (head == null)
+            {
+                continue;
+            }
+
+            if (first == null)
+            {
+                first = e.getValue();
+            }
+
+            if (now - head.getCreated() > e.getKey().getMaxWait()
+                && (overdue == null || head.getCreated() < overdue.peekFirst().getCreated()))
+            {
+                overdue = e.getValue();
+            }
+        }
+
+        return overdue != null ? overdue : first;
+    }
+
+
+
+
+    public synchronized boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+
+
+
+    public synchronized void drainTo(Collection<USBRequest> out)
+    {
+        for (ArrayDeque<USBRequest> lane : lanes.values())
+        {
+            out.addAll(lane);
+            lane.clear();
+        }
+
+        size = 0;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+
+
+/*
+ * Live view stream from the driver: a big-endian int length followed by a fixed BLOCK-byte buffer, of which only
+ * the first length bytes are JPEG and the rest is zero padding.  Blocks may arrive split across any number of
+ * reads; once one is complete its JPEG is handed over in its own array.
+ */
+final class USBLiveViewDecoder
+{
+    // usb_interface always sends this much after the length, whatever the frame size.
+    public static final int BLOCK = 50000;
+
+    private final Sink out;
+    private final byte[] block;
+    private int header;
+    private int headerBytes;
+    private int size;
+    private int length;
+
+
+
+
+    USBLiveViewDecoder(Sink out)
+    {
+        this.out = out;
+        this.block = new byte[BLOCK];
+        this.length = -1;
+    }
+
+
+
+
+    void decode(ByteBuffer in)
+    {
+        while (in.hasRemaining())
+        {
+            if (length < 0)
+            {
+                header = (header << 8) | (in.get() & 0xff);
+
+                if (++headerBytes < 4)
+                {
+                    continue;
+                }
+
+                size = header;
+                header = 0;
+                headerBytes = 0;
+                length = 0;
+            }
+
+            int n = Math.min(in.remaining(), BLOCK - length);
+            in.get(block, length, n);
+            length += n;
+
+            if (length == BLOCK)
+            {
+                length = -1;
+
+                out.frame(size, size > 0 && size <= BLOCK ? Arrays.copyOf(block, size) : null);
+            }
+        }
+    }
+
+
+
+
+    interface Sink
+    {
+        // jpeg is null when size does not fit in the block.
+        void frame(int size, byte[] jpeg);
+    }
+}
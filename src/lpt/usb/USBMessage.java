@@ -8,8 +8,6 @@ package lpt.usb;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 
@@ -17,83 +15,312 @@ import java.util.regex.Pattern;
 public class USBMessage
 {
     private static final char END_DELIM = '}';
-    private static final String MAP_DELIM = ",";
-    private static final String MAP_SEP = "=";
-    private static final Pattern PATTERN = Pattern.compile("\\{typ:([^,]+),msg:([^,]*),err:([^,]*),data:(.*)\\}", Pattern.DOTALL);
+    private static final char MAP_DELIM = ',';
+    private static final char MAP_SEP = '=';
+    private static final String TYP_FIELD = "{typ:";
+    private static final String MSG_FIELD = ",msg:";
+    private static final String ERR_FIELD = ",err:";
+    private static final String DATA_FIELD = ",data:";
+    private static final int[] NO_ENTRIES = new int[0];
 
     private String typ;
     private String err;
     private String msg;
-    
-    private final Map<String, String> m;
+
+    // Flat key/value store: each entry is four offsets into the raw data (key start, key end, value start, value end).
+    private int[] entries;
+    private int numEntries;
+    private String[] values;
+
+    private final CharSequence source;
     private final String rawData;
     private final boolean malformed;
-    
 
 
-    
+
+
     public USBMessage(String errorType, String s)
     {
         typ = errorType;
-        err = "Command failed to execute: " + s.replaceAll("\n", " ");
-        m = new HashMap<>();
+        err = "Command failed to execute: " + s.replace('\n', ' ');
         msg = "";
+        entries = NO_ENTRIES;
+        numEntries = 0;
+        source = s;
         rawData = s;
         malformed = false;
     }
-            
 
 
-    
+
+
     public USBMessage (String s)
     {
+        source = s;
         rawData = s;
-        
-        s = s.trim();
-        
+        entries = NO_ENTRIES;
+        numEntries = 0;
+
+        malformed = !parse(s);
+    }
+
+
+
+
+    private boolean parse(CharSequence s)
+    {
+        int lo = 0;
+        int hi = s.length();
+
+        while (lo < hi && s.charAt(lo) <= ' ')
+        {
+            lo++;
+        }
+
+        while (hi > lo && s.charAt(hi - 1) <= ' ')
+        {
+            hi--;
+        }
+
+        int close = lastIndexOf(s, END_DELIM, lo, hi);
+
+        for (int start = indexOf(s, TYP_FIELD, lo, hi); start >= 0; start = indexOf(s, TYP_FIELD, start + 1, hi))
+        {
+            int t = start + TYP_FIELD.length();
+            int c1 = indexOf(s, MAP_DELIM, t, hi);
+
+            if (c1 <= t || !startsWith(s, MSG_FIELD, c1, hi))
+            {
+                continue;
+            }
+
+            int m = c1 + MSG_FIELD.length();
+            int c2 = indexOf(s, MAP_DELIM, m, hi);
+
+            if (c2 < 0 || !startsWith(s, ERR_FIELD, c2, hi))
+            {
+                continue;
+            }
+
+            int e = c2 + ERR_FIELD.length();
+            int c3 = indexOf(s, MAP_DELIM, e, hi);
+
+            if (c3 < 0 || !startsWith(s, DATA_FIELD, c3, hi))
+            {
+                continue;
+            }
+
+            int d = c3 + DATA_FIELD.length();
+
+            if (close < d)
+            {
+                continue;
+            }
+
+            typ = s.subSequence(t, c1).toString();
+            msg = s.subSequence(m, c2).toString();
+            err = s.subSequence(e, c3).toString();
+
+            parseData(s, d, close);
+
+            return true;
+        }
+
         typ = "";
-        err = "Malformed message [" + s + "]";
+        err = "Malformed message [" + s.subSequence(lo, hi) + "]";
         msg = "";
-        m = new HashMap<>();
-        
-        Matcher matcher = PATTERN.matcher(s);
-                
-        if (matcher.find())
-        {
-            typ = matcher.group(1);
-            msg = matcher.group(2);
-            err = matcher.group(3);
-            malformed = false;
-            
-            String mapParse = matcher.group(4);
-            
-            for (String chunk : mapParse.split(MAP_DELIM))
+
+        return false;
+    }
+
+
+
+
+    private void parseData(CharSequence s, int from, int to)
+    {
+        int chunk = from;
+
+        while (chunk <= to)
+        {
+            int end = indexOf(s, MAP_DELIM, chunk, to);
+
+            if (end < 0)
             {
-                String[] kv = chunk.split(MAP_SEP);
-                
-                if (kv.length == 2)
+                end = to;
+            }
+
+            addEntry(s, chunk, end);
+
+            chunk = end + 1;
+        }
+    }
+
+
+
+
+    private void addEntry(CharSequence s, int from, int to)
+    {
+        // Matches chunk.split("=") yielding exactly two pieces once trailing empty pieces are dropped.
+        int sep = indexOf(s, MAP_SEP, from, to);
+
+        if (sep < 0)
+        {
+            return;
+        }
+
+        int valueEnd = indexOf(s, MAP_SEP, sep + 1, to);
+
+        if (valueEnd < 0)
+        {
+            valueEnd = to;
+        }
+        else
+        {
+            for (int i = valueEnd; i < to; i++)
+            {
+                if (s.charAt(i) != MAP_SEP)
                 {
-                    m.put(kv[0], kv[1]);
+                    return;
                 }
             }
-        }    
-        else
+        }
+
+        if (valueEnd == sep + 1)
+        {
+            return;
+        }
+
+        if (entries.length == numEntries * 4)
         {
-            malformed = true;
+            int[] grown = new int[Math.max(32, entries.length * 2)];
+            System.arraycopy(entries, 0, grown, 0, entries.length);
+            entries = grown;
         }
+
+        int i = numEntries * 4;
+        entries[i] = from;
+        entries[i + 1] = sep;
+        entries[i + 2] = sep + 1;
+        entries[i + 3] = valueEnd;
+        numEntries++;
     }
-    
 
-    
-    
+
+
+
+    private int find(String k)
+    {
+        // Scans backwards so a repeated key resolves to its last value.
+        for (int n = numEntries - 1; n >= 0; n--)
+        {
+            int i = n * 4;
+
+            if (entries[i + 1] - entries[i] == k.length() && startsWith(source, k, entries[i], entries[i + 1]))
+            {
+                return n;
+            }
+        }
+
+        return -1;
+    }
+
+
+
+
+    private static int indexOf(CharSequence s, char c, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (s.charAt(i) == c)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+
+
+    private static int indexOf(CharSequence s, String target, int from, int to)
+    {
+        for (int i = from; i <= to - target.length(); i++)
+        {
+            if (startsWith(s, target, i, to))
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+
+
+    private static int lastIndexOf(CharSequence s, char c, int from, int to)
+    {
+        for (int i = to - 1; i >= from; i--)
+        {
+            if (s.charAt(i) == c)
+            {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+
+
+    private static boolean startsWith(CharSequence s, String prefix, int at, int to)
+    {
+        if (to - at < prefix.length())
+        {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            if (s.charAt(at + i) != prefix.charAt(i))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+
+
     public String getKey(String k)
     {
-        return this.m.get(k);
+        int n = find(k);
+
+        if (n < 0)
+        {
+            return null;
+        }
+
+        if (values == null)
+        {
+            values = new String[numEntries];
+        }
+
+        if (values[n] == null)
+        {
+            values[n] = source.subSequence(entries[n * 4 + 2], entries[n * 4 + 3]).toString();
+        }
+
+        return values[n];
     }
-    
 
 
-    
+
+
     public boolean hasKeys(String... ks)
     {
         for (String k : ks)
@@ -103,87 +330,104 @@ public class USBMessage
                 return false;
             }
         }
-        
+
         return true;
     }
-    
 
 
-    
+
+
     public boolean hasKey(String k)
     {
-        return this.m.containsKey(k);
+        return find(k) >= 0;
     }
-    
 
 
-    
+
+
     public boolean hasError()
     {
         return !"".equals(err);
     }
-    
 
 
-    
+
+
     public boolean hasMessage()
     {
         return !"".equals(msg);
     }
-    
 
 
-    
+
+
     public String getMessage()
     {
         return msg;
     }
-    
 
 
-    
+
+
     public String getError()
     {
         return err;
     }
-    
 
 
-    
+
+
     public String getType()
     {
         return typ;
     }
-    
 
 
-    
+
+
     public static char getMessageDelim()
     {
         return END_DELIM;
     }
-    
 
 
-    
+
+
     public String getRawData()
     {
         return rawData;
     }
-    
 
 
-    
+
+
     public boolean isMalformed()
     {
         return malformed;
     }
-    
+
+
+
+
+    public Map<String, String> getData()
+    {
+        Map<String, String> m = new HashMap<>();
+
+        for (int n = 0; n < numEntries; n++)
+        {
+            int i = n * 4;
+
+            m.put(source.subSequence(entries[i], entries[i + 1]).toString(), source.subSequence(entries[i + 2], entries[i + 3]).toString());
+        }
+
+        return m;
+    }
+
     @Override
     public String toString()
     {
-        String data = (this.m.size() > 0 ? " DATA: " + this.m.toString() : "");
-        
+        String data = (numEntries > 0 ? " DATA: " + getData().toString() : "");
+
         if (this.err.length() > 0)
         {
             return "    USB " +this.typ + " ERROR " + this.err + data ;
@@ -0,0 +1,47 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+
+
+
+final class USBNativeDriverLauncher implements USBDriverLauncher
+{
+    @Override
+    public Process launch() throws IOException, URISyntaxException
+    {
+        String cwd = new File(USBBridge.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
+
+        ProcessBuilder pb;
+
+        if (USBBridge.IS_WIN)
+        {
+            pb = new ProcessBuilder(cwd + "/lib/usb_interface_win64.exe");
+        }
+        else
+        {
+            if (USBBridge.IS_MAC)
+            {
+                pb = new ProcessBuilder(cwd + "/lib/usb_interface_macos64");
+            }
+            else
+            {
+                pb = new ProcessBuilder(cwd + "/lib/usb_interface_linux64");
+            }
+
+            Map<String, String> env = pb.environment();
+            env.put("LD_LIBRARY_PATH", cwd + "/lib/");
+        }
+
+        return pb.start();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+
+
+final class USBReadCache
+{
+    private final long freshness;
+    private final Map<String, CompletableFuture<USBMessage>> inFlight;
+    private final Map<String, Entry> recent;
+    private final AtomicLong generation;
+
+
+
+
+    USBReadCache(int freshnessMillis)
+    {
+        this.freshness = TimeUnit.MILLISECONDS.toNanos(freshnessMillis);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.recent = new ConcurrentHashMap<>();
+        this.generation = new AtomicLong();
+    }
+
+
+
+
+    public CompletableFuture<USBMessage> read(String c, Function<String, CompletableFuture<USBMessage>> send)
+    {
+        long gen = generation.get();
+        Entry e = recent.get(c);
+
+        if (e != null && e.generation == gen && System.nanoTime() - e.at < freshness)
+        {
+            return CompletableFuture.completedFuture(e.nm);
+        }
+
+        // Only reads started in the same generation are joined: one sent before a write may return the old values.
+        String key = gen + ":" + c;
+        CompletableFuture<USBMessage> shared = inFlight.get(key);
+
+        if (shared != null)
+        {
+            return shared;
+        }
+
+        CompletableFuture<USBMessage> mine = new CompletableFuture<>();
+        shared = inFlight.putIfAbsent(key, mine);
+
+        if (shared != null)
+        {
+            return shared;
+        }
+
+        send.apply(c).whenComplete((USBMessage nm, Throwable ex) ->
+        {
+            // A write issued while this read was on the wire makes the reply unsafe to reuse.
+            if (ex == null && !nm.hasError() && !nm.isMalformed() && generation.get() == gen)
+            {
+                recent.put(c, new Entry(nm, System.nanoTime(), gen));
+            }
+
+            inFlight.remove(key, mine);
+
+            if (ex == null)
+            {
+                mine.complete(nm);
+            }
+            else
+            {
+                mine.completeExceptionally(ex);
+            }
+        });
+
+        return mine;
+    }
+
+
+
+
+    public void invalidate()
+    {
+        generation.incrementAndGet();
+        recent.clear();
+    }
+
+
+
+
+    private static final class Entry
+    {
+        private final USBMessage nm;
+        private final long at;
+        private final long generation;
+
+        Entry(USBMessage nm, long at, long generation)
+        {
+            this.nm = nm;
+            this.at = at;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+
+
+final class USBRequest
+{
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id;
+    private final long created;
+    private final String command;
+    private final CompletableFuture<USBMessage> reply;
+    private final CompletableFuture<Long> written;
+    private final CompletableFuture<Long> started;
+
+
+
+
+    USBRequest(String command)
+    {
+        this.id = NEXT_ID.incrementAndGet();
+        this.created = System.nanoTime();
+        this.command = command;
+        this.reply = new CompletableFuture<>();
+        this.written = new CompletableFuture<>();
+        this.started = new CompletableFuture<>();
+    }
+
+
+
+
+    public long getId()
+    {
+        return id;
+    }
+
+
+
+
+    public long getCreated()
+    {
+        return created;
+    }
+
+
+
+
+    public String getCommand()
+    {
+        return command;
+    }
+
+
+
+
+    public String getOpcode()
+    {
+        int end = command.indexOf('\n');
+
+        return end < 0 ? command : command.substring(0, end);
+    }
+
+
+
+
+    public CompletableFuture<USBMessage> getReply()
+    {
+        return reply;
+    }
+
+
+
+
+    public CompletableFuture<Long> getWritten()
+    {
+        return written;
+    }
+
+
+
+
+    public void markWritten()
+    {
+        written.complete(System.nanoTime());
+    }
+
+
+
+
+    // Written and at the head of the in-flight queue, so the driver is working on this one and no earlier reply.
+    public CompletableFuture<Long> getStarted()
+    {
+        return started;
+    }
+
+
+
+
+    public void markStarted()
+    {
+        started.complete(System.nanoTime());
+    }
+
+
+
+
+    public boolean complete(USBMessage nm)
+    {
+        return reply.complete(nm);
+    }
+
+
+
+
+    public boolean abandon()
+    {
+        return reply.cancel(false);
+    }
+
+
+
+
+    public boolean isDone()
+    {
+        return reply.isDone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "#" + id + " " + command.replace("\n", " ");
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+
+final class USBSimulatorLauncher implements USBDriverLauncher
+{
+    @Override
+    public Process launch() throws IOException
+    {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+
+        // The simulator is tuned from the launching JVM's command line.
+        for (String k : System.getProperties().stringPropertyNames())
+        {
+            if (k.startsWith("lpt.sim."))
+            {
+                cmd.add("-D" + k + "=" + System.getProperty(k));
+            }
+        }
+
+        cmd.add(USBDriverSimulator.class.getName());
+
+        return new ProcessBuilder(cmd).start();
+    }
+}
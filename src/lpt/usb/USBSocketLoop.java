@@ -0,0 +1,303 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lpt.event.EventDispatcher;
+import lpt.log.Log;
+
+
+
+
+/*
+ * One selector thread for every socket the driver connects back to: the event channel opened by START_EVENTS and
+ * the live view stream.  Each listening socket accepts a single connection; its bytes are read into one reusable
+ * direct buffer and handed to the stream's Reader, which decodes incrementally and must not block, since every
+ * camera and every open stream shares this thread.
+ */
+final class USBSocketLoop
+{
+    public static final int READ_BUFFER_SIZE = Integer.getInteger("lpt.usb.socketBuffer", 65536);
+
+    private static final Log LOG = Log.get("usb");
+    private static USBSocketLoop instance;
+
+    private final Selector selector;
+    private final Queue<Runnable> pending;
+    private final ByteBuffer buffer;
+    private final Thread thread;
+
+
+
+
+    private USBSocketLoop() throws IOException
+    {
+        this.selector = Selector.open();
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.buffer = ByteBuffer.allocateDirect(Math.max(4096, READ_BUFFER_SIZE));
+
+        this.thread = new Thread(this::run, "USB socket loop");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+
+
+
+    static synchronized USBSocketLoop get() throws IOException
+    {
+        if (instance == null)
+        {
+            instance = new USBSocketLoop();
+        }
+
+        return instance;
+    }
+
+
+
+
+    // Opens a listening socket on a free port; the first connection to it is read by reader until closed.
+    Stream listen(Reader reader) throws IOException
+    {
+        ServerSocketChannel server = ServerSocketChannel.open();
+
+        try
+        {
+            server.bind(new InetSocketAddress(0));
+            server.configureBlocking(false);
+        }
+        catch (IOException ex)
+        {
+            server.close();
+            throw ex;
+        }
+
+        Stream s = new Stream(server, reader);
+
+        // The port is already bound, so the driver may connect before the channel is registered.
+        submit(() ->
+        {
+            try
+            {
+                server.register(selector, SelectionKey.OP_ACCEPT, s);
+            }
+            catch (ClosedChannelException ex)
+            {
+
+            }
+        });
+
+        return s;
+    }
+
+
+
+
+    private void submit(Runnable r)
+    {
+        pending.add(r);
+        selector.wakeup();
+    }
+
+
+
+
+    private void run()
+    {
+        EventDispatcher.enterIoLoop();
+
+        while (true)
+        {
+            try
+            {
+                selector.select();
+
+                Runnable r;
+                while ((r = pending.poll()) != null)
+                {
+                    r.run();
+                }
+
+                for (SelectionKey k : selector.selectedKeys())
+                {
+                    Stream s = (Stream) k.attachment();
+
+                    if (!k.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (k.isAcceptable())
+                    {
+                        s.accept();
+                    }
+                    else if (k.isReadable())
+                    {
+                        s.read(buffer);
+                    }
+                }
+
+                selector.selectedKeys().clear();
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                LOG.error("USB socket loop: {}", ex);
+            }
+        }
+    }
+
+
+
+
+    interface Reader
+    {
+        // Consumes everything between position and limit; called on the loop thread only.
+        void read(ByteBuffer in) throws IOException;
+
+        // The driver closed the connection or it failed; not called after Stream.close.
+        void closed(IOException cause);
+    }
+
+
+
+
+    final class Stream
+    {
+        private final ServerSocketChannel server;
+        private final Reader reader;
+        private volatile SocketChannel channel;
+        private volatile boolean closed;
+
+
+
+
+        private Stream(ServerSocketChannel server, Reader reader)
+        {
+            this.server = server;
+            this.reader = reader;
+        }
+
+
+
+
+        int getLocalPort()
+        {
+            return server.socket().getLocalPort();
+        }
+
+
+
+
+        private void accept() throws IOException
+        {
+            SocketChannel ch = server.accept();
+
+            if (ch == null)
+            {
+                return;
+            }
+
+            server.close();
+
+            ch.configureBlocking(false);
+            ch.register(selector, SelectionKey.OP_READ, this);
+            channel = ch;
+
+            if (closed)
+            {
+                shut();
+            }
+        }
+
+
+
+
+        private void read(ByteBuffer in)
+        {
+            IOException failure = null;
+
+            try
+            {
+                in.clear();
+
+                if (channel.read(in) >= 0)
+                {
+                    in.flip();
+                    reader.read(in);
+
+                    return;
+                }
+            }
+            catch (IOException ex)
+            {
+                failure = ex;
+            }
+            catch (RuntimeException ex)
+            {
+                // A decoder that chokes on the stream has lost its framing; nothing after this can be trusted.
+                failure = new IOException(ex);
+            }
+
+            shut();
+
+            if (!closed)
+            {
+                closed = true;
+                reader.closed(failure);
+            }
+        }
+
+
+
+
+        // Stops reading and closes both sockets; safe from any thread.
+        void close()
+        {
+            closed = true;
+            shut();
+        }
+
+
+
+
+        private void shut()
+        {
+            try
+            {
+                server.close();
+            }
+            catch (IOException ex)
+            {
+
+            }
+
+            SocketChannel ch = channel;
+
+            if (ch != null)
+            {
+                try
+                {
+                    ch.close();
+                }
+                catch (IOException ex)
+                {
+
+                }
+            }
+        }
+    }
+}
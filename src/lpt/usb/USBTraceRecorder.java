@@ -0,0 +1,234 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import lpt.log.Log;
+
+
+
+
+/*
+ * Trace layout, all big-endian:
+ *   header:  int MAGIC, short VERSION, long wall clock millis at start
+ *   record:  byte type, int channel, long nanos since start, payload
+ * LAUNCH has no payload, FRAME carries the int frame size and the other types an int length plus UTF-8 text.
+ * Commands and responses are tagged with the channel of the driver process that carried them;
+ * events and live-view frames use channel 0 and belong to whichever process last started them.
+ */
+final class USBTraceRecorder
+{
+    private static final Log LOG = Log.get("usb.trace");
+
+    public static final int MAGIC = 0x4C505454;
+    public static final short VERSION = 1;
+
+    public static final byte LAUNCH = 0;
+    public static final byte COMMAND = 1;
+    public static final byte RESPONSE = 2;
+    public static final byte EVENT = 3;
+    public static final byte FRAME = 4;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final USBTraceRecorder INSTANCE = open(System.getProperty("lpt.usb.trace"));
+
+    private final DataOutputStream out;
+    private final long start;
+    private final AtomicInteger channels;
+
+
+
+
+    private USBTraceRecorder(DataOutputStream out)
+    {
+        this.out = out;
+        this.start = System.nanoTime();
+        this.channels = new AtomicInteger();
+    }
+
+
+
+
+    public static USBTraceRecorder get()
+    {
+        return INSTANCE;
+    }
+
+
+
+
+    private static USBTraceRecorder open(String path)
+    {
+        if (path == null || path.isEmpty())
+        {
+            return new USBTraceRecorder(null);
+        }
+
+        try
+        {
+            DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), BUFFER_SIZE));
+            o.writeInt(MAGIC);
+            o.writeShort(VERSION);
+            o.writeLong(System.currentTimeMillis());
+
+            USBTraceRecorder r = new USBTraceRecorder(o);
+            Runtime.getRuntime().addShutdownHook(new Thread(r::close, "USB trace flush"));
+
+            LOG.info("Recording USB trace to {}", path);
+
+            return r;
+        }
+        catch (IOException ex)
+        {
+            LOG.error("USB trace could not be opened: {}", ex);
+
+            return new USBTraceRecorder(null);
+        }
+    }
+
+
+
+
+    public boolean isEnabled()
+    {
+        return out != null;
+    }
+
+
+
+
+    public int launch()
+    {
+        if (out == null)
+        {
+            return 0;
+        }
+
+        int channel = channels.incrementAndGet();
+        write(LAUNCH, channel, null, 0);
+
+        return channel;
+    }
+
+
+
+
+    public void command(int channel, String c)
+    {
+        if (out != null)
+        {
+            write(COMMAND, channel, c, 0);
+        }
+    }
+
+
+
+
+    public void response(int channel, String s)
+    {
+        if (out != null)
+        {
+            write(RESPONSE, channel, s, 0);
+        }
+    }
+
+
+
+
+    public void event(String s)
+    {
+        if (out != null)
+        {
+            write(EVENT, 0, s, 0);
+        }
+    }
+
+
+
+
+    public void frame(int size)
+    {
+        if (out != null)
+        {
+            write(FRAME, 0, null, size);
+        }
+    }
+
+
+
+
+    private synchronized void write(byte type, int channel, String text, int size)
+    {
+        try
+        {
+            out.writeByte(type);
+            out.writeInt(channel);
+            out.writeLong(System.nanoTime() - start);
+
+            if (type == FRAME)
+            {
+                out.writeInt(size);
+            }
+            else if (type != LAUNCH)
+            {
+                byte[] b = text.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+        catch (IOException ex)
+        {
+            LOG.error("USB trace write failed: {}", ex);
+        }
+    }
+
+
+
+
+    public synchronized void flush()
+    {
+        if (out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            out.flush();
+        }
+        catch (IOException ex)
+        {
+            LOG.error("USB trace flush failed: {}", ex);
+        }
+    }
+
+
+
+
+    private synchronized void close()
+    {
+        if (out == null)
+        {
+            return;
+        }
+
+        try
+        {
+            out.close();
+        }
+        catch (IOException ex)
+        {
+
+        }
+    }
+}
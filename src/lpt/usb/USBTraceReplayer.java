@@ -0,0 +1,501 @@
+/**
+ * @author Libert
+ */
+
+
+
+package lpt.usb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import lpt.log.Log;
+
+
+
+
+/*
+ * Plays a trace written by USBTraceRecorder back as if it came from the driver.  Each launch() takes the next
+ * recorded driver process and answers the bridge's commands with the recorded responses, keeping the recorded
+ * gap between a command and whatever followed it, divided by speed.  A speed of 0 replays without delays.
+ */
+final class USBTraceReplayer implements USBDriverLauncher
+{
+    private static final Log LOG = Log.get("usb.trace");
+    private static final int PIPE_SIZE = 65536;
+
+    private final String path;
+    private final double speed;
+    private Queue<List<Record>> segments;
+
+
+
+
+    USBTraceReplayer(String path, double speed)
+    {
+        this.path = path;
+        this.speed = speed;
+    }
+
+
+
+
+    @Override
+    public synchronized Process launch() throws IOException
+    {
+        if (segments == null)
+        {
+            segments = load(path);
+        }
+
+        List<Record> segment = segments.poll();
+
+        if (segment == null)
+        {
+            throw new IOException("USB trace " + path + " has no more recorded driver runs");
+        }
+
+        return new ReplayProcess(segment, speed);
+    }
+
+
+
+
+    static Queue<List<Record>> load(String path) throws IOException
+    {
+        Map<Integer, List<Record>> byChannel = new HashMap<>();
+        Queue<List<Record>> order = new LinkedList<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path))))
+        {
+            if (in.readInt() != USBTraceRecorder.MAGIC || in.readShort() != USBTraceRecorder.VERSION)
+            {
+                throw new IOException("Not a USB trace: " + path);
+            }
+
+            in.readLong();
+
+            int events = 0;
+            int liveView = 0;
+
+            while (true)
+            {
+                byte type;
+
+                try
+                {
+                    type = in.readByte();
+                }
+                catch (EOFException ex)
+                {
+                    break;
+                }
+
+                int channel = in.readInt();
+                long at = in.readLong();
+                String text = null;
+                int size = 0;
+
+                if (type == USBTraceRecorder.FRAME)
+                {
+                    size = in.readInt();
+                }
+                else if (type != USBTraceRecorder.LAUNCH)
+                {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    text = new String(b, StandardCharsets.UTF_8);
+                }
+
+                if (type == USBTraceRecorder.LAUNCH)
+                {
+                    List<Record> l = new ArrayList<>();
+                    byChannel.put(channel, l);
+                    order.add(l);
+                    continue;
+                }
+
+                if (type == USBTraceRecorder.COMMAND)
+                {
+                    String opcode = text.split("\n", 2)[0];
+
+                    if (USBBridge.START_EVENTS.equals(opcode))
+                    {
+                        events = channel;
+                    }
+                    else if (USBBridge.START_LV.equals(opcode))
+                    {
+                        liveView = channel;
+                    }
+                }
+                else if (type == USBTraceRecorder.EVENT)
+                {
+                    channel = events;
+                }
+                else if (type == USBTraceRecorder.FRAME)
+                {
+                    channel = liveView;
+                }
+
+                List<Record> l = byChannel.get(channel);
+
+                if (l != null)
+                {
+                    l.add(new Record(type, at, text, size));
+                }
+            }
+        }
+
+        return order;
+    }
+
+
+
+
+    static final class Record
+    {
+        final byte type;
+        final long at;
+        final String text;
+        final int size;
+
+        Record(byte type, long at, String text, int size)
+        {
+            this.type = type;
+            this.at = at;
+            this.text = text;
+            this.size = size;
+        }
+    }
+
+
+
+
+    private static final class ReplayProcess extends Process
+    {
+        private final List<Record> script;
+        private final double speed;
+        private final PipedOutputStream stdin;
+        private final PipedInputStream commands;
+        private final PipedOutputStream replies;
+        private final PipedInputStream stdout;
+        private final CountDownLatch exited;
+        private final Thread player;
+
+        private volatile boolean destroyed;
+        private Socket events;
+        private Socket liveView;
+
+
+
+
+        ReplayProcess(List<Record> script, double speed) throws IOException
+        {
+            this.script = script;
+            this.speed = speed;
+            this.commands = new PipedInputStream(PIPE_SIZE);
+            this.stdin = new PipedOutputStream(commands);
+            this.stdout = new PipedInputStream(PIPE_SIZE);
+            this.replies = new PipedOutputStream(stdout);
+            this.exited = new CountDownLatch(1);
+            this.player = new Thread(this::play, "USB trace replay");
+            this.player.setDaemon(true);
+            this.player.start();
+        }
+
+
+
+
+        private void play()
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(commands, StandardCharsets.UTF_8));
+            long last = System.nanoTime();
+            long lastAt = script.isEmpty() ? 0 : script.get(0).at;
+
+            try
+            {
+                for (Record r : script)
+                {
+                    if (destroyed)
+                    {
+                        break;
+                    }
+
+                    if (r.type == USBTraceRecorder.COMMAND)
+                    {
+                        String c = readCommand(in, r.text.split("\n", -1).length);
+
+                        if (c == null)
+                        {
+                            break;
+                        }
+
+                        if (!c.equals(r.text))
+                        {
+                            LOG.warn("USB trace replay expected [{}] but got [{}]", r.text.replace("\n", " "), c.replace("\n", " "));
+                        }
+
+                        started(c);
+
+                        // The bridge sets the pace; gaps are measured from when it actually sent the command.
+                        last = System.nanoTime();
+                        lastAt = r.at;
+                        continue;
+                    }
+
+                    if (speed > 0)
+                    {
+                        long target = last + (long) ((r.at - lastAt) / speed);
+                        long wait = target - System.nanoTime();
+
+                        if (wait > 0)
+                        {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+
+                        last = target;
+                    }
+
+                    lastAt = r.at;
+
+                    if (r.type == USBTraceRecorder.RESPONSE)
+                    {
+                        replies.write(r.text.getBytes(StandardCharsets.UTF_8));
+                        replies.flush();
+                    }
+                    else if (r.type == USBTraceRecorder.EVENT && events != null)
+                    {
+                        events.getOutputStream().write(r.text.getBytes(StandardCharsets.UTF_8));
+                        events.getOutputStream().flush();
+                    }
+                    else if (r.type == USBTraceRecorder.FRAME && liveView != null)
+                    {
+                        liveView.getOutputStream().write(frame(r.size));
+                        liveView.getOutputStream().flush();
+                    }
+                }
+
+                // A run recorded up to EXIT ends with the driver; otherwise idle like a driver with nothing to say.
+                String c;
+                while (!destroyed && !exitedOnRecord() && (c = in.readLine()) != null)
+                {
+                    LOG.warn("USB trace replay has no response left for [{}]", c);
+                }
+            }
+            catch (IOException | InterruptedException ex)
+            {
+
+            }
+
+            finish();
+        }
+
+
+
+
+        private boolean exitedOnRecord()
+        {
+            for (int i = script.size() - 1; i >= 0; i--)
+            {
+                if (script.get(i).type == USBTraceRecorder.COMMAND)
+                {
+                    return USBBridge.EXIT.equals(script.get(i).text);
+                }
+            }
+
+            return false;
+        }
+
+
+
+
+        private static String readCommand(BufferedReader in, int lines) throws IOException
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for (int i = 0; i < lines; i++)
+            {
+                String l = in.readLine();
+
+                if (l == null)
+                {
+                    return null;
+                }
+
+                if (i > 0)
+                {
+                    sb.append('\n');
+                }
+
+                sb.append(l);
+            }
+
+            return sb.toString();
+        }
+
+
+
+
+        private void started(String c) throws IOException
+        {
+            String[] parts = c.split("\n");
+
+            if (USBBridge.START_EVENTS.equals(parts[0]) && parts.length > 1)
+            {
+                close(events);
+                events = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(parts[1].trim()));
+            }
+            else if (USBBridge.START_LV.equals(parts[0]) && parts.length > 1)
+            {
+                close(liveView);
+                liveView = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(parts[1].trim()));
+            }
+            else if (USBBridge.STOP_LV.equals(parts[0]))
+            {
+                close(liveView);
+                liveView = null;
+            }
+        }
+
+
+
+
+        // Only frame sizes are recorded, so the payload is a minimal JPEG-shaped filler, zero-padded to the fixed
+        // block usb_interface sends.  A recorded size that does not fit the block is replayed as is, without markers.
+        private static byte[] frame(int size)
+        {
+            ByteBuffer b = ByteBuffer.allocate(4 + USBLiveViewDecoder.BLOCK);
+            b.putInt(size);
+
+            if (size >= 4 && size <= USBLiveViewDecoder.BLOCK)
+            {
+                b.put((byte) 0xFF).put((byte) 0xD8);
+                b.position(4 + size - 2);
+                b.put((byte) 0xFF).put((byte) 0xD9);
+            }
+
+            return b.array();
+        }
+
+
+
+
+        private static void close(Socket s)
+        {
+            if (s != null)
+            {
+                try
+                {
+                    s.close();
+                }
+                catch (IOException ex)
+                {
+
+                }
+            }
+        }
+
+
+
+
+        private void finish()
+        {
+            close(events);
+            close(liveView);
+
+            try
+            {
+                replies.close();
+            }
+            catch (IOException ex)
+            {
+
+            }
+
+            exited.countDown();
+        }
+
+
+
+
+        @Override
+        public OutputStream getOutputStream()
+        {
+            return stdin;
+        }
+
+        @Override
+        public InputStream getInputStream()
+        {
+            return stdout;
+        }
+
+        @Override
+        public InputStream getErrorStream()
+        {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException
+        {
+            exited.await();
+
+            return exitValue();
+        }
+
+        @Override
+        public int exitValue()
+        {
+            if (exited.getCount() > 0)
+            {
+                throw new IllegalThreadStateException("USB trace replay is still running");
+            }
+
+            return destroyed ? 1 : 0;
+        }
+
+        @Override
+        public void destroy()
+        {
+            destroyed = true;
+            player.interrupt();
+
+            try
+            {
+                commands.close();
+            }
+            catch (IOException ex)
+            {
+
+            }
+        }
+
+        @Override
+        public boolean isAlive()
+        {
+            return exited.getCount() > 0;
+        }
+    }
+}